@@ -15,28 +15,97 @@
  */
 package org.wildfly.extras.transformer;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Calendar;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Archive transformer tries to convert given archives to another archives by applying configured transformation rules.
- * Cannot be used concurrently by multiple threads as instances of this class are not thread safe.
+ * Can be used concurrently by multiple threads to transform distinct archives as instances of this class are thread safe.
  *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
 public abstract class ArchiveTransformer {
 
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+    private static final int NESTED_ARCHIVE_BUFFER_SIZE = 8 * 1024;
+    private static final String[] NESTED_ARCHIVE_SUFFIXES = {".jar", ".war", ".ear", ".rar"};
+    /**
+     * Top level nested archives rebuilt into at most this many bytes are buffered so they can be replaced
+     * by the original archive entry if none of their entries was transformed.
+     */
+    private static final int NESTED_ARCHIVE_COPY_THRESHOLD = 8 * 1024 * 1024;
+    /**
+     * Resources bigger than this size (and resources of unknown size exceeding it) are streamed
+     * instead of being loaded into memory if resource transformer supports it.
+     */
+    static final int STREAMING_THRESHOLD = 8 * 1024 * 1024;
+    private static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     protected final File configsDir;
     protected final boolean verbose;
     protected final boolean invert;
+    /**
+     * Count of threads transforming archive entries. Configured by {@link TransformerBuilder}.
+     */
+    int parallelism = 1;
+    /**
+     * Whether archives nested in transformed archive should be transformed too. Configured by {@link TransformerBuilder}.
+     */
+    boolean transformNestedArchives;
+    /**
+     * Transformation cache or <code>null</code> if caching is disabled. Configured by {@link TransformerBuilder}.
+     */
+    TransformationCache cache;
+    /**
+     * Fixed modification time of all written archive entries or <code>null</code> if current time should be used.
+     * Fixed time is stored in UTC so produced archives don't depend on time zone. Configured by {@link TransformerBuilder}.
+     */
+    Long entryTime;
+    /**
+     * Compresses written archive entries according to per entry type settings. Configured by {@link TransformerBuilder}.
+     */
+    EntryCompressor compressor = new EntryCompressor(Collections.emptyMap(), null);
+    /**
+     * Transformation metrics or <code>null</code> if metrics are disabled. Configured by {@link TransformerBuilder}.
+     */
+    TransformerMetrics metrics;
+    /**
+     * Packages mapping shared by all resource transformers created by this archive transformer.
+     * Either configured by {@link TransformerBuilder} or loaded lazily from {@link #configsDir}.
+     */
+    volatile CompiledMapping mapping;
 
     protected ArchiveTransformer(final File configsDir, final boolean verbose, final boolean invert) {
         this.configsDir = configsDir;
@@ -55,7 +124,26 @@ public abstract class ArchiveTransformer {
      * @throws IOException if some I/O error occurs
      */
     public boolean transform(final File inJarFile, final File outJarFile) throws IOException {
+        final Object event = TransformerEvents.beginArchive();
         boolean transformed = false;
+        try {
+            if (inJarFile.isDirectory()) {
+                transformed = new DirectoryTransformer(this, inJarFile.toPath(), outJarFile.toPath()).transform();
+            } else {
+                transformed = transformArchive(inJarFile, outJarFile, parallelism);
+            }
+            return transformed;
+        } finally {
+            TransformerEvents.endArchive(event, this, inJarFile, outJarFile, transformed);
+        }
+    }
+
+    /**
+     * Transforms archive file.
+     *
+     * @param parallelism count of threads transforming archive entries
+     */
+    boolean transformArchive(final File inJarFile, final File outJarFile, final int parallelism) throws IOException {
         final File dir = outJarFile.getParentFile();
         if (!dir.exists()) {
             if (!dir.mkdirs()) {
@@ -70,72 +158,879 @@ public abstract class ArchiveTransformer {
         if (!outJarFile.createNewFile()) {
             throw new IOException("Couldn't create file: " + outJarFile.getAbsolutePath());
         }
+        final long time = entryTime != null ? entryTime : System.currentTimeMillis();
+        final ZoneId zone = entryTime != null ? ZoneOffset.UTC : ZoneId.systemDefault();
+
+        try (ZipArchiveReader jar = new ZipArchiveReader(inJarFile, metrics);
+                ZipArchiveWriter jarOutputStream = new ZipArchiveWriter(outJarFile)) {
+            final ArchiveOutput output = new ArchiveOutput(jar, jarOutputStream, compressor, metrics, time, zone);
+            if (parallelism > 1) {
+                transformConcurrently(jar, output, parallelism);
+            } else {
+                transformSequentially(jar, output);
+            }
+            return output.transformed;
+        }
+    }
+
+    private void transformSequentially(final ZipArchiveReader jar, final ArchiveOutput output) throws IOException {
         final ResourceTransformer t = newResourceTransformer();
-        final Calendar calendar = Calendar.getInstance();
-        JarEntry inJarEntry, outJarEntry;
-        byte[] buffer;
-        ResourceTransformer.Resource oldResource;
-        ResourceTransformer.Resource[] newResources;
-
-        try (JarFile jar = new JarFile(inJarFile);
-                JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(outJarFile));) {
-            for (final Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
-                // jar file entry preconditions
-                inJarEntry = e.nextElement();
-                if (inJarEntry.getSize() == 0) {
-                    continue; // directories
-                }
-                if (inJarEntry.getSize() < 0) {
-                    throw new UnsupportedOperationException("File size " + inJarEntry.getName() + " unknown! File size must be positive number");
-                }
-                if (inJarEntry.getSize() > Integer.MAX_VALUE) {
-                    throw new UnsupportedOperationException("File " + inJarEntry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
-                }
-                // reading original jar file entry
-                buffer = new byte[(int) inJarEntry.getSize()];
-                try (InputStream in = jar.getInputStream(inJarEntry)) {
-                    readBytes(in, buffer);
-                }
-
-                oldResource = new ResourceTransformer.Resource(inJarEntry.getName(), buffer);
-                // transform resource
-                newResources = t.transform(oldResource);
-                if (newResources.length == 0) {
-                    newResources = new ResourceTransformer.Resource[]{oldResource};
+        try {
+            readEntries(jar, t, new EntryHandler() {
+                @Override
+                public void resource(final ZipArchiveReader.Entry inJarEntry, final ResourceTransformer.Resource oldResource) throws IOException {
+                    output.write(inJarEntry, oldResource, transformResource(t, oldResource), null);
+                }
+
+                @Override
+                public void streamedResource(final ZipArchiveReader.Entry inJarEntry, final String oldName,
+                                             final ResourceTransformer.StreamedResource newResource, final InputStream in) throws IOException {
+                    output.write(inJarEntry, oldName, newResource, in);
+                }
+
+                @Override
+                public void nestedArchiveStart(final ZipArchiveReader.Entry inJarEntry, final String name) throws IOException {
+                    output.nestedArchiveStart(inJarEntry, name);
+                }
+
+                @Override
+                public void nestedArchiveEnd() throws IOException {
+                    output.nestedArchiveEnd();
+                }
+            });
+        } catch (final InterruptedException e) {
+            // never happens, sequential entry handler doesn't block
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archive transformation interrupted");
+        }
+    }
+
+    /**
+     * Transforms archive entries in three stages. The reader thread reads entries in archive order
+     * and submits their transformation to the fork-join pool. Pending transformations are queued
+     * in archive order so the calling thread can write the results exactly as the sequential mode does.
+     * The bounded queue of pending transformations limits the count of entries held in memory.
+     * Entries of nested archives go through the same queue so sibling nested archives are transformed concurrently too.
+     * Streamed resources are written by the calling thread too. If streamed resource data come from nested archive stream
+     * the reader thread waits until the calling thread consumes them. Transformed top level entries are compressed
+     * by the fork-join pool as well (big entries in concurrently deflated chunks) so the calling thread only appends them.
+     */
+    private void transformConcurrently(final ZipArchiveReader jar, final ArchiveOutput output, final int parallelism) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final BlockingQueue<PendingEntry> pendingEntries = new ArrayBlockingQueue<>(parallelism * PENDING_ENTRIES_PER_THREAD);
+        final ThreadLocal<ResourceTransformer> transformers = new ThreadLocal<>();
+        final ResourceTransformer readerTransformer = newResourceTransformer();
+        final Thread reader = new Thread(() -> {
+            try {
+                readEntries(jar, readerTransformer, new EntryHandler() {
+                    @Override
+                    public void resource(final ZipArchiveReader.Entry inJarEntry, final ResourceTransformer.Resource oldResource) throws InterruptedException {
+                        pendingEntries.put(new PendingEntry(inJarEntry, oldResource, pool.submit(() -> {
+                            final ResourceTransformer.Resource[] newResources = transformResource(getResourceTransformer(transformers), oldResource);
+                            return new TransformedEntry(newResources, compress(inJarEntry, oldResource, newResources));
+                        }), null, null));
+                    }
+
+                    @Override
+                    public void streamedResource(final ZipArchiveReader.Entry inJarEntry, final String oldName,
+                                                 final ResourceTransformer.StreamedResource newResource, final InputStream in) throws InterruptedException {
+                        final PendingEntry pendingEntry = new PendingEntry(inJarEntry, oldName, newResource, in);
+                        pendingEntries.put(pendingEntry);
+                        if (in != null) {
+                            pendingEntry.consumed.await(); // nested archive stream cannot be read until the writer is done
+                        }
+                    }
+
+                    @Override
+                    public void nestedArchiveStart(final ZipArchiveReader.Entry inJarEntry, final String name) throws InterruptedException {
+                        pendingEntries.put(new PendingEntry(inJarEntry, null, null, name, null));
+                    }
+
+                    @Override
+                    public void nestedArchiveEnd() throws InterruptedException {
+                        pendingEntries.put(PendingEntry.NESTED_ARCHIVE_END);
+                    }
+                });
+                pendingEntries.put(PendingEntry.END);
+            } catch (final InterruptedException ignored) {
+                // writer gave up
+            } catch (final Throwable t) {
+                pendingEntries.clear();
+                pendingEntries.offer(new PendingEntry(null, null, null, null, t));
+            }
+        }, "Archive reader");
+        reader.start();
+        try {
+            PendingEntry pendingEntry;
+            while ((pendingEntry = pendingEntries.take()) != PendingEntry.END) {
+                if (pendingEntry.failure != null) {
+                    throw asIOException(pendingEntry.failure);
+                }
+                if (pendingEntry == PendingEntry.NESTED_ARCHIVE_END) {
+                    output.nestedArchiveEnd();
+                } else if (pendingEntry.nestedArchiveName != null) {
+                    output.nestedArchiveStart(pendingEntry.inJarEntry, pendingEntry.nestedArchiveName);
+                } else if (pendingEntry.streamedResource != null) {
+                    try {
+                        output.write(pendingEntry.inJarEntry, pendingEntry.streamedResourceOldName, pendingEntry.streamedResource, pendingEntry.streamedData);
+                    } finally {
+                        pendingEntry.consumed.countDown();
+                    }
                 } else {
-                    transformed = true;
+                    try {
+                        final TransformedEntry transformedEntry = pendingEntry.newResources.get();
+                        output.write(pendingEntry.inJarEntry, pendingEntry.oldResource, transformedEntry.newResources, transformedEntry.compressed);
+                    } catch (final ExecutionException e) {
+                        throw asIOException(e.getCause());
+                    }
                 }
-                // writing potentially modified jar file entries
-                for (ResourceTransformer.Resource newResource : newResources) {
-                    outJarEntry = new JarEntry(newResource.getName());
-                    outJarEntry.setSize(newResource.getData().length);
-                    outJarEntry.setTime(calendar.getTimeInMillis());
-                    jarOutputStream.putNextEntry(outJarEntry);
-                    writeBytes(jarOutputStream, newResource.getData());
-                    jarOutputStream.closeEntry();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archive transformation interrupted");
+        } finally {
+            reader.interrupt();
+            pool.shutdownNow();
+            boolean interrupted = false;
+            while (reader.isAlive()) {
+                try {
+                    reader.join();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
                 }
             }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return transformed;
     }
 
-    // TODO: javadoc
+    /**
+     * Compresses the first transformed resource in advance if it is going to be written to the top level archive
+     * with new data. Additional resources are compressed by the writer only if they were not written yet.
+     */
+    private EntryCompressor.CompressedEntry compress(final ZipArchiveReader.Entry inJarEntry, final ResourceTransformer.Resource oldResource,
+                                                      final ResourceTransformer.Resource[] newResources) {
+        if (inJarEntry == null || newResources.length == 0 || newResources[0].getData() == oldResource.getData()) {
+            return null;
+        }
+        return compressor.compress(newResources[0].getName(), newResources[0].getData());
+    }
+
+    ResourceTransformer getResourceTransformer(final ThreadLocal<ResourceTransformer> transformers) {
+        ResourceTransformer retVal = transformers.get();
+        if (retVal == null) {
+            try {
+                retVal = newResourceTransformer();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            transformers.set(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Transforms resource using transformation cache if enabled.
+     */
+    ResourceTransformer.Resource[] transformResource(final ResourceTransformer t, final ResourceTransformer.Resource r) {
+        final long start = startPhase(metrics);
+        final Object event = TransformerEvents.beginResource();
+        ResourceTransformer.Resource[] retVal = null;
+        try {
+            retVal = cache != null ? cache.transform(t, r) : t.transform(r);
+            return retVal;
+        } finally {
+            TransformerEvents.endResource(event, t, r, retVal);
+            endPhase(metrics, TransformerMetrics.Phase.TRANSFORM, start);
+        }
+    }
+
+    static long startPhase(final TransformerMetrics metrics) {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    static void endPhase(final TransformerMetrics metrics, final TransformerMetrics.Phase phase, final long start) {
+        if (metrics != null) {
+            metrics.phase(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets entry type reported to metrics i.e. lower case entry name extension.
+     */
+    static String getEntryType(final String name) {
+        final int dotIndex = name.lastIndexOf('.');
+        return dotIndex > name.lastIndexOf('/') ? name.substring(dotIndex + 1).toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    static IOException asIOException(final Throwable t) {
+        if (t instanceof UncheckedIOException) {
+            return ((UncheckedIOException) t).getCause();
+        }
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IOException(t);
+    }
+
+    /**
+     * Reads archive entries in archive order and passes them to the entry handler.
+     * If nested archives transformation is enabled nested archives are streamed recursively
+     * and their entries are passed to the entry handler between nested archive start and end events.
+     * Resources exceeding {@link #STREAMING_THRESHOLD} are passed as streamed resources if resource transformer supports it.
+     */
+    private void readEntries(final ZipArchiveReader jar, final ResourceTransformer t, final EntryHandler handler) throws IOException, InterruptedException {
+        ResourceTransformer.StreamedResource streamedResource;
+        for (final ZipArchiveReader.Entry inJarEntry : jar.getEntries()) {
+            if (inJarEntry.getSize() == 0) {
+                continue; // directories
+            }
+            if (isNestedArchive(inJarEntry.getName())) {
+                try (InputStream in = new BufferedInputStream(jar.openStream(inJarEntry), NESTED_ARCHIVE_BUFFER_SIZE)) {
+                    if (isZipStream(in)) {
+                        readNestedEntries(inJarEntry, inJarEntry.getName(), in, t, handler);
+                        continue;
+                    }
+                }
+            }
+            if (inJarEntry.getSize() > STREAMING_THRESHOLD) {
+                streamedResource = t.transformStreamed(inJarEntry.getName());
+                if (streamedResource != null) {
+                    handler.streamedResource(inJarEntry, inJarEntry.getName(), streamedResource, null);
+                    continue;
+                }
+            }
+            handler.resource(inJarEntry, new ResourceTransformer.Resource(inJarEntry.getName(), jar.read(inJarEntry)));
+        }
+    }
+
+    private void readNestedEntries(final ZipArchiveReader.Entry inJarEntry, final String name, final InputStream in,
+                                   final ResourceTransformer t, final EntryHandler handler) throws IOException, InterruptedException {
+        handler.nestedArchiveStart(inJarEntry, name);
+        try (ZipInputStream zis = new ZipInputStream(new UncloseableInputStream(in))) {
+            ZipEntry inZipEntry;
+            InputStream entryIn;
+            ResourceTransformer.StreamedResource streamedResource;
+            byte[] data;
+            while ((inZipEntry = zis.getNextEntry()) != null) {
+                if (inZipEntry.isDirectory()) {
+                    continue;
+                }
+                entryIn = new UncloseableInputStream(zis);
+                if (isNestedArchive(inZipEntry.getName())) {
+                    entryIn = new BufferedInputStream(entryIn, NESTED_ARCHIVE_BUFFER_SIZE);
+                    if (isZipStream(entryIn)) {
+                        readNestedEntries(null, inZipEntry.getName(), entryIn, t, handler);
+                        continue;
+                    }
+                }
+                streamedResource = null;
+                if (inZipEntry.getSize() > STREAMING_THRESHOLD || inZipEntry.getSize() < 0) {
+                    streamedResource = t.transformStreamed(inZipEntry.getName());
+                }
+                if (streamedResource != null && inZipEntry.getSize() > STREAMING_THRESHOLD) {
+                    handler.streamedResource(null, inZipEntry.getName(), streamedResource, entryIn);
+                    continue;
+                }
+                // size of entries written with data descriptor is unknown, load them only if they are small enough
+                final long start = startPhase(metrics);
+                data = readBytes(entryIn, streamedResource != null ? STREAMING_THRESHOLD + 1 : MAX_ARRAY_SIZE);
+                endPhase(metrics, TransformerMetrics.Phase.INFLATE, start);
+                if (data.length > STREAMING_THRESHOLD && streamedResource != null) {
+                    handler.streamedResource(null, inZipEntry.getName(), streamedResource, new SequenceInputStream(new ByteArrayInputStream(data), entryIn));
+                    continue;
+                }
+                if (data.length == MAX_ARRAY_SIZE && entryIn.read() != -1) {
+                    throw new UnsupportedOperationException("File " + inZipEntry.getName() + " too big! Maximum allowed file size is " + MAX_ARRAY_SIZE + " bytes");
+                }
+                if (data.length == 0) {
+                    continue; // empty files
+                }
+                handler.resource(null, new ResourceTransformer.Resource(inZipEntry.getName(), data));
+            }
+        }
+        handler.nestedArchiveEnd();
+    }
+
+    boolean isNestedArchive(final String name) {
+        if (!transformNestedArchives) return false;
+        final String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        for (final String suffix : NESTED_ARCHIVE_SUFFIXES) {
+            if (lowerCaseName.endsWith(suffix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the stream starts with ZIP local file header signature. Stream position is left unchanged.
+     */
+    static boolean isZipStream(final InputStream in) throws IOException {
+        in.mark(4);
+        int signature = 0;
+        int b;
+        for (int i = 0; i < 4; i++) {
+            if ((b = in.read()) == -1) {
+                in.reset();
+                return false;
+            }
+            signature |= b << (i * 8);
+        }
+        in.reset();
+        return signature == ZipArchiveReader.LOCAL_HEADER_SIGNATURE;
+    }
+
+    /**
+     * Reads stream data until end of stream or until given count of bytes is read.
+     */
+    static byte[] readBytes(final InputStream in, final int limit) throws IOException {
+        byte[] data = new byte[Math.min(NESTED_ARCHIVE_BUFFER_SIZE, limit)];
+        int size = 0;
+        int read;
+        while ((read = in.read(data, size, data.length - size)) != -1) {
+            size += read;
+            if (size == data.length) {
+                if (size == limit) {
+                    return data;
+                }
+                data = Arrays.copyOf(data, (int) Math.min(2L * size, limit));
+            }
+        }
+        return size == data.length ? data : Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Copies all stream data to the output stream.
+     *
+     * @return count of copied bytes
+     */
+    static long transfer(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[STREAMING_BUFFER_SIZE];
+        long retVal = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            retVal += read;
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets resource transformer of this transformation engine. It is called by every thread transforming
+     * resources. Engines with thread safe resource transformers may return the same instance to all threads.
+     *
+     * @return resource transformer
+     * @throws IOException if some I/O error occurs
+     * @throws UnsupportedOperationException if transformation engine doesn't support transformation of individual resources
+     */
     protected ResourceTransformer newResourceTransformer() throws IOException {
         throw new UnsupportedOperationException();
     }
 
-    private static void readBytes(final InputStream is, final byte[] clazz) throws IOException {
-        int offset = 0;
-        while (offset < clazz.length) {
-            offset += is.read(clazz, offset, clazz.length - offset);
-        }
+    /**
+     * Gets transformation metrics resource transformers created by this archive transformer should report to.
+     *
+     * @return transformation metrics or <code>null</code> if metrics are disabled
+     */
+    protected final TransformerMetrics getMetrics() {
+        return metrics;
     }
 
-    private static void writeBytes(final OutputStream os, final byte[] clazz) throws IOException {
-        os.write(clazz);
+    /**
+     * Gets packages mapping shared by all resource transformers created by this archive transformer.
+     * The mapping is loaded from {@link #configsDir} on the first call unless it was configured
+     * via {@link TransformerBuilder#setMapping(CompiledMapping)}.
+     *
+     * @return packages mapping
+     * @throws IOException if some I/O error occurs
+     */
+    protected final CompiledMapping getMapping() throws IOException {
+        CompiledMapping retVal = mapping;
+        if (retVal == null) {
+            synchronized (this) {
+                retVal = mapping;
+                if (retVal == null) {
+                    mapping = retVal = CompiledMapping.load(configsDir, invert);
+                }
+            }
+        }
+        return retVal;
     }
 
     public boolean canTransformIndividualClassFile() {
         return false;
     }
+
+    /**
+     * Gets transformation cache.
+     *
+     * @return transformation cache or <code>null</code> if caching is disabled
+     */
+    public final TransformationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Applies archive transformation using transformation cache if enabled. Intended for transformers
+     * overriding {@link #transform(File, File)} that don't transform archives entry by entry.
+     * Exploded archives are never cached.
+     *
+     * @param fingerprint fingerprint of transformation configuration (invert flag is included automatically)
+     * @param inJarFile archive file to be consumed
+     * @param outJarFile archive file to be produced
+     * @param transformation archive transformation to be applied on cache miss
+     * @return <code>true</code> if transformations were applied to archive, <code>false</code> if source and target
+     * contents are identical.
+     * @throws IOException if some I/O error occurs
+     */
+    protected final boolean transformCached(final byte[] fingerprint, final File inJarFile, final File outJarFile,
+                                            final Transformation transformation) throws IOException {
+        if (cache == null || inJarFile.isDirectory()) {
+            return transformation.transform(inJarFile, outJarFile);
+        }
+        final File dir = outJarFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            if (!dir.mkdirs()) {
+                throw new IOException("Couldn't create directory: " + dir.getAbsolutePath());
+            }
+        }
+        final byte[] retVal = Arrays.copyOf(fingerprint, fingerprint.length + 1);
+        retVal[fingerprint.length] = (byte) (invert ? 1 : 0);
+        return cache.transform(TransformationCache.engineId(getClass()), retVal, inJarFile, outJarFile, transformation);
+    }
+
+    /**
+     * Archive transformation.
+     */
+    protected interface Transformation {
+        boolean transform(File inJarFile, File outJarFile) throws IOException;
+    }
+
+    /**
+     * Receives archive entries and nested archive boundaries in archive order.
+     */
+    private interface EntryHandler {
+
+        /**
+         * @param inJarEntry top level archive entry or <code>null</code> if resource comes from nested archive
+         * @param oldResource resource to be transformed
+         */
+        void resource(ZipArchiveReader.Entry inJarEntry, ResourceTransformer.Resource oldResource) throws IOException, InterruptedException;
+
+        /**
+         * @param inJarEntry top level archive entry or <code>null</code> if resource comes from nested archive
+         * @param oldName original resource name
+         * @param newResource streamed resource transformation
+         * @param in nested archive resource data or <code>null</code> if resource is top level archive entry
+         */
+        void streamedResource(ZipArchiveReader.Entry inJarEntry, String oldName, ResourceTransformer.StreamedResource newResource,
+                              InputStream in) throws IOException, InterruptedException;
+
+        /**
+         * @param inJarEntry top level archive entry or <code>null</code> if archive is nested in another nested archive
+         * @param name nested archive name
+         */
+        void nestedArchiveStart(ZipArchiveReader.Entry inJarEntry, String name) throws IOException, InterruptedException;
+
+        void nestedArchiveEnd() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Transformed archive output. Nested archives are compressed directly into their parent archive entries
+     * so they are never held in memory as a whole, except for top level nested archives small enough
+     * to be buffered. Buffered nested archive is replaced by the original archive entry if none of its
+     * entries was transformed. Additional resources generated by resource transformer (e.g. utility classes)
+     * are written only once per (nested) archive.
+     */
+    private static final class ArchiveOutput {
+
+        private final ZipArchiveReader jar;
+        private final ZipArchiveWriter jarOutputStream;
+        private final EntryCompressor compressor;
+        private final TransformerMetrics metrics;
+        /**
+         * Top level archive entries modification time in MS-DOS format.
+         */
+        private final int dosTime;
+        /**
+         * Nested archive entries modification time. {@link ZipEntry} converts it to MS-DOS format in default time zone.
+         */
+        private final long nestedTime;
+        private final Deque<ZipOutputStream> nestedArchives = new ArrayDeque<>();
+        private final Deque<Set<String>> generatedResources = new ArrayDeque<>();
+        /**
+         * Whether parent archives of the current nested archive were transformed before it started.
+         */
+        private final Deque<Boolean> parentsTransformed = new ArrayDeque<>();
+        private ZipArchiveReader.Entry nestedArchiveEntry;
+        private NestedArchiveBuffer nestedArchiveBuffer;
+        private boolean transformed;
+
+        private ArchiveOutput(final ZipArchiveReader jar, final ZipArchiveWriter jarOutputStream, final EntryCompressor compressor,
+                              final TransformerMetrics metrics, final long time, final ZoneId zone) {
+            this.jar = jar;
+            this.jarOutputStream = jarOutputStream;
+            this.compressor = compressor;
+            this.metrics = metrics;
+            this.dosTime = ZipArchiveWriter.toDosTime(time, zone);
+            // shift the time so its local date and time in default time zone equal to its date and time in given zone
+            this.nestedTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            generatedResources.push(new HashSet<>());
+        }
+
+        /**
+         * Writes transformed resources to the output archive.
+         * Original compressed data are copied to the output archive if resource data were not modified
+         * (either resource was not transformed at all or resource transformer only renamed it).
+         *
+         * @param compressed the first new resource compressed in advance or <code>null</code>
+         */
+        private void write(final ZipArchiveReader.Entry inJarEntry, final ResourceTransformer.Resource oldResource,
+                           final ResourceTransformer.Resource[] newResources, final EntryCompressor.CompressedEntry compressed) throws IOException {
+            if (newResources.length == 0) {
+                copy(oldResource.getName(), inJarEntry, oldResource.getData());
+                if (metrics != null) {
+                    metrics.entry(getEntryType(oldResource.getName()), oldResource.getData().length, oldResource.getData().length);
+                }
+                return;
+            }
+            transformed = true;
+            ResourceTransformer.Resource newResource;
+            long bytesOut = 0;
+            for (int i = 0; i < newResources.length; i++) {
+                newResource = newResources[i];
+                if (i > 0 && !generatedResources.peek().add(newResource.getName())) {
+                    continue; // already written
+                }
+                if (i == 0 && newResource.getData() == oldResource.getData()) {
+                    copy(newResource.getName(), inJarEntry, newResource.getData()); // resource was only renamed
+                } else {
+                    write(newResource.getName(), newResource.getData(), i == 0 ? compressed : null);
+                }
+                bytesOut += newResource.getData().length;
+            }
+            if (metrics != null) {
+                metrics.entry(getEntryType(oldResource.getName()), oldResource.getData().length, bytesOut);
+            }
+        }
+
+        /**
+         * Writes streamed resource to the output archive. Top level archive entries that are only renamed
+         * are copied without decompressing them, other resources are compressed as their data are streamed.
+         */
+        private void write(final ZipArchiveReader.Entry inJarEntry, final String oldName,
+                           final ResourceTransformer.StreamedResource newResource, final InputStream in) throws IOException {
+            final Map<String, String> replacements = newResource.getReplacements();
+            if (!replacements.isEmpty() || !newResource.getName().equals(oldName)) {
+                transformed = true;
+            }
+            final long start = startPhase(metrics);
+            if (replacements.isEmpty() && inJarEntry != null) {
+                jarOutputStream.copy(newResource.getName(), jar, inJarEntry, dosTime);
+                endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+                if (metrics != null) {
+                    metrics.entry(getEntryType(oldName), inJarEntry.getSize(), inJarEntry.getSize());
+                }
+                return;
+            }
+            final CountingOutputStream entryOut = new CountingOutputStream(openEntry(newResource.getName()));
+            final long bytesIn;
+            try (InputStream data = inJarEntry != null ? jar.openStream(inJarEntry) : in;
+                 OutputStream out = replacements.isEmpty() ? entryOut : new ReplacingOutputStream(entryOut, replacements)) {
+                bytesIn = transfer(data, out);
+            }
+            endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            if (metrics != null) {
+                metrics.entry(getEntryType(oldName), bytesIn, entryOut.count);
+            }
+        }
+
+        private void nestedArchiveStart(final ZipArchiveReader.Entry inJarEntry, final String name) throws IOException {
+            final OutputStream out;
+            if (nestedArchives.isEmpty()) {
+                nestedArchiveEntry = inJarEntry;
+                nestedArchiveBuffer = new NestedArchiveBuffer(jarOutputStream, name, compressor.getLevel(name), dosTime);
+                out = nestedArchiveBuffer;
+            } else {
+                out = openEntry(name);
+            }
+            nestedArchives.push(new ZipOutputStream(out));
+            generatedResources.push(new HashSet<>());
+            parentsTransformed.push(transformed);
+            transformed = false;
+        }
+
+        /**
+         * Opens entry of the current (nested) archive. Closing returned stream closes the entry.
+         */
+        private OutputStream openEntry(final String name) throws IOException {
+            if (nestedArchives.isEmpty()) {
+                return jarOutputStream.openEntry(name, compressor.getLevel(name), dosTime);
+            }
+            nestedArchives.peek().setLevel(compressor.getLevel(name));
+            putNextEntry(nestedArchives.peek(), name, null);
+            return new NestedEntryOutputStream(nestedArchives.peek());
+        }
+
+        private void nestedArchiveEnd() throws IOException {
+            generatedResources.pop();
+            final ZipOutputStream zos = nestedArchives.pop();
+            final boolean nestedTransformed = transformed;
+            transformed = parentsTransformed.pop() || nestedTransformed;
+            if (!nestedArchives.isEmpty()) {
+                zos.close();
+                return;
+            }
+            if (nestedTransformed || nestedArchiveBuffer.isStreamed()) {
+                zos.close();
+            } else {
+                nestedArchiveBuffer.discard();
+                zos.close();
+                final long start = startPhase(metrics);
+                jarOutputStream.copy(nestedArchiveEntry.getName(), jar, nestedArchiveEntry, dosTime);
+                endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            }
+            nestedArchiveEntry = null;
+            nestedArchiveBuffer = null;
+        }
+
+        private void copy(final String name, final ZipArchiveReader.Entry inJarEntry, final byte[] data) throws IOException {
+            if (inJarEntry != null) {
+                final long start = startPhase(metrics);
+                jarOutputStream.copy(name, jar, inJarEntry, dosTime);
+                endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            } else {
+                write(name, data, null);
+            }
+        }
+
+        private void write(final String name, final byte[] data, final EntryCompressor.CompressedEntry compressed) throws IOException {
+            if (nestedArchives.isEmpty()) {
+                final EntryCompressor.CompressedEntry entry = compressed != null ? compressed : compressor.compress(name, data);
+                final long start = startPhase(metrics);
+                jarOutputStream.write(name, entry, dosTime);
+                endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            } else {
+                final long start = startPhase(metrics);
+                final ZipOutputStream zos = nestedArchives.peek();
+                zos.setLevel(compressor.getLevel(name));
+                putNextEntry(zos, name, compressor.getMethod(name) == ZipEntry.STORED ? data : null);
+                zos.write(data);
+                zos.closeEntry();
+                endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            }
+        }
+
+        /**
+         * Opens nested archive entry.
+         *
+         * @param storedData entry data if entry should be stored or <code>null</code> if it should be deflated
+         */
+        private void putNextEntry(final ZipOutputStream zos, final String name, final byte[] storedData) throws IOException {
+            final ZipEntry outZipEntry = new ZipEntry(name);
+            outZipEntry.setTime(nestedTime);
+            if (storedData != null) {
+                final CRC32 crc = new CRC32();
+                crc.update(storedData, 0, storedData.length);
+                outZipEntry.setMethod(ZipEntry.STORED);
+                outZipEntry.setSize(storedData.length);
+                outZipEntry.setCompressedSize(storedData.length);
+                outZipEntry.setCrc(crc.getValue());
+            }
+            zos.putNextEntry(outZipEntry);
+        }
+    }
+
+    /**
+     * Stream counting written bytes.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Nested archive entry stream. Closing this stream closes the entry but not the parent archive.
+     */
+    private static final class NestedEntryOutputStream extends FilterOutputStream {
+
+        private NestedEntryOutputStream(final ZipOutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ((ZipOutputStream) out).closeEntry();
+        }
+    }
+
+    /**
+     * Top level nested archive entry stream. Data are buffered until they exceed {@link #NESTED_ARCHIVE_COPY_THRESHOLD},
+     * bigger nested archives are streamed to the archive entry. Closing this stream writes buffered data
+     * and closes the entry unless the data were discarded.
+     */
+    private static final class NestedArchiveBuffer extends OutputStream {
+
+        private final ZipArchiveWriter jarOutputStream;
+        private final String name;
+        private final int level;
+        private final int dosTime;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream out;
+        private boolean discarded;
+
+        private NestedArchiveBuffer(final ZipArchiveWriter jarOutputStream, final String name, final int level, final int dosTime) {
+            this.jarOutputStream = jarOutputStream;
+            this.name = name;
+            this.level = level;
+            this.dosTime = dosTime;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (discarded) return;
+            if (out == null) {
+                if (buffer.size() + len <= NESTED_ARCHIVE_COPY_THRESHOLD) {
+                    buffer.write(b, off, len);
+                    return;
+                }
+                openEntry();
+            }
+            out.write(b, off, len);
+        }
+
+        /**
+         * Whether buffered data were already written to the archive entry.
+         */
+        private boolean isStreamed() {
+            return out != null;
+        }
+
+        private void discard() {
+            discarded = true;
+            buffer = null;
+        }
+
+        private void openEntry() throws IOException {
+            out = jarOutputStream.openEntry(name, level, dosTime);
+            buffer.writeTo(out);
+            buffer = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (discarded) return;
+            if (out == null) {
+                openEntry();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Nested archive input stream. Closing this stream doesn't close the parent archive.
+     */
+    private static final class UncloseableInputStream extends FilterInputStream {
+
+        private UncloseableInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // parent archive stream is closed by its owner
+        }
+    }
+
+    /**
+     * Resource transformation result.
+     */
+    private static final class TransformedEntry {
+
+        private final ResourceTransformer.Resource[] newResources;
+        private final EntryCompressor.CompressedEntry compressed;
+
+        private TransformedEntry(final ResourceTransformer.Resource[] newResources, final EntryCompressor.CompressedEntry compressed) {
+            this.newResources = newResources;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Archive entry waiting for its transformation to complete, streamed resource waiting to be written
+     * or nested archive boundary.
+     */
+    private static final class PendingEntry {
+
+        private static final PendingEntry END = new PendingEntry(null, null, null, null, null);
+        private static final PendingEntry NESTED_ARCHIVE_END = new PendingEntry(null, null, null, null, null);
+        private final ZipArchiveReader.Entry inJarEntry;
+        private final ResourceTransformer.Resource oldResource;
+        private final Future<TransformedEntry> newResources;
+        private final String nestedArchiveName;
+        private final Throwable failure;
+        private final String streamedResourceOldName;
+        private final ResourceTransformer.StreamedResource streamedResource;
+        private final InputStream streamedData;
+        private final CountDownLatch consumed;
+
+        private PendingEntry(final ZipArchiveReader.Entry inJarEntry, final ResourceTransformer.Resource oldResource,
+                             final Future<TransformedEntry> newResources, final String nestedArchiveName,
+                             final Throwable failure) {
+            this.inJarEntry = inJarEntry;
+            this.oldResource = oldResource;
+            this.newResources = newResources;
+            this.nestedArchiveName = nestedArchiveName;
+            this.failure = failure;
+            this.streamedResourceOldName = null;
+            this.streamedResource = null;
+            this.streamedData = null;
+            this.consumed = null;
+        }
+
+        private PendingEntry(final ZipArchiveReader.Entry inJarEntry, final String oldName,
+                             final ResourceTransformer.StreamedResource streamedResource, final InputStream streamedData) {
+            this.inJarEntry = inJarEntry;
+            this.oldResource = null;
+            this.newResources = null;
+            this.nestedArchiveName = null;
+            this.failure = null;
+            this.streamedResourceOldName = oldName;
+            this.streamedResource = streamedResource;
+            this.streamedData = streamedData;
+            this.consumed = new CountDownLatch(1);
+        }
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Validated packages mapping. Packages mapping is loaded and validated only once and then it can be shared
+ * by any number of transformers (see {@link TransformerBuilder#setMapping(CompiledMapping)}).
+ * Transformation engines can attach their own precompiled forms of the mapping
+ * (see {@link #getCompiledForm(Class, Function)}) so these are computed only once too.
+ * Can be used concurrently by multiple threads as instances of this class are immutable and thus thread safe.
+ */
+public final class CompiledMapping {
+
+    private static final String DEFAULT_CONFIG = "default.mapping";
+    private static final int MAX_MAPPINGS = 0xFFFF;
+    private static final char DOT = '.';
+    private static final char SEP = '/';
+    private final File configsDir;
+    private final boolean invert;
+    private final Map<String, String> mappingWithSeps;
+    private final Map<String, String> mappingWithDots;
+    private final ConcurrentMap<Class<?>, Object> compiledForms = new ConcurrentHashMap<>();
+
+    private CompiledMapping(final File configsDir, final boolean invert, final Map<String, String> packagesMapping) {
+        this.configsDir = configsDir;
+        this.invert = invert;
+        final Map<String, String> mappingWithSeps = new HashMap<>();
+        final Map<String, String> mappingWithDots = new HashMap<>();
+        for (Map.Entry<String, String> mapping : packagesMapping.entrySet()) {
+            if (invert) {
+                addMapping(mappingWithSeps, mappingWithDots, mapping.getValue(), mapping.getKey());
+            } else {
+                addMapping(mappingWithSeps, mappingWithDots, mapping.getKey(), mapping.getValue());
+            }
+        }
+        if (mappingWithSeps.isEmpty()) {
+            throw new IllegalStateException("No mapping was defined in packages mapping config file");
+        }
+        this.mappingWithSeps = Collections.unmodifiableMap(mappingWithSeps);
+        this.mappingWithDots = Collections.unmodifiableMap(mappingWithDots);
+    }
+
+    /**
+     * Loads packages mapping from <code>default.mapping</code> file located in given directory.
+     * If there is no such file default packages mapping available on class path is loaded.
+     *
+     * @param configsDir configuration files directory or <code>null</code> if default packages mapping should be loaded
+     * @param invert if packages mapping should be inverted
+     * @return validated packages mapping
+     * @throws IOException if some I/O error occurs
+     * @throws IllegalStateException if there was no packages mapping defined in configuration file or
+     * if packages mapping count in configuration file surpasses value <code>65535</code>
+     * @throws IllegalArgumentException if configuration file has invalid format or it contains identical package mapping
+     * or if some package defined in one package mapping is a substring of package in another package mapping
+     */
+    public static CompiledMapping load(final File configsDir, final boolean invert) throws IOException {
+        final InputStream mappingFile;
+        final File userConfig = new File(configsDir, DEFAULT_CONFIG);
+        if (userConfig.exists() && userConfig.isFile()) {
+            mappingFile = new FileInputStream(userConfig);
+        } else {
+            mappingFile = CompiledMapping.class.getResourceAsStream(SEP + DEFAULT_CONFIG);
+        }
+        if (mappingFile == null) {
+            throw new IllegalArgumentException("Couldn't find specified config file neither on file system nor on class path");
+        }
+        final Properties packagesMapping = new Properties();
+        try (InputStream in = mappingFile) {
+            packagesMapping.load(in);
+        }
+        final Map<String, String> mapping = new LinkedHashMap<>();
+        String to;
+        for (String from : packagesMapping.stringPropertyNames()) {
+            to = packagesMapping.getProperty(from);
+            if (to.indexOf(DOT) != -1 || from.indexOf(DOT) != -1) {
+                throw new IllegalArgumentException("Packages mapping config file must be property file in path separator format only");
+            }
+            mapping.put(from, to);
+        }
+        return new CompiledMapping(configsDir, invert, mapping);
+    }
+
+    /**
+     * Creates packages mapping programmatically.
+     *
+     * @param packagesMapping packages mapping in path separator format
+     * @param invert if packages mapping should be inverted
+     * @return validated packages mapping
+     * @throws IllegalStateException if packages mapping is empty or if packages mapping count surpasses value <code>65535</code>
+     * @throws IllegalArgumentException if packages mapping is not in path separator format or it contains identical
+     * package mapping or if some package defined in one package mapping is a substring of package in another package mapping
+     */
+    public static CompiledMapping of(final Map<String, String> packagesMapping, final boolean invert) {
+        if (packagesMapping == null) throw new IllegalArgumentException("Parameter cannot be null");
+        for (Map.Entry<String, String> mapping : packagesMapping.entrySet()) {
+            if (mapping.getKey() != null && mapping.getKey().indexOf(DOT) != -1 || mapping.getValue() != null && mapping.getValue().indexOf(DOT) != -1) {
+                throw new IllegalArgumentException("Packages mapping must be in path separator format only");
+            }
+        }
+        return new CompiledMapping(null, invert, packagesMapping);
+    }
+
+    private static void addMapping(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots, final String from, final String to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Package definition cannot be null");
+        }
+        if (from.length() == 0 || to.length() == 0) {
+            throw new IllegalArgumentException("Package definition cannot be empty string");
+        }
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Identical package mapping detected: " + from + " -> " + to);
+        }
+        for (String key : mappingWithSeps.keySet()) {
+            if (key.contains(from)) {
+                throw new IllegalArgumentException("Package " + from + " is substring of package " + key);
+            }
+            if (from.contains(key)) {
+                throw new IllegalArgumentException("Package " + key + " is substring of package " + from);
+            }
+        }
+        if (mappingWithSeps.size() > MAX_MAPPINGS) {
+            throw new IllegalStateException("Packages mapping count exceeded value " + MAX_MAPPINGS);
+        }
+        mappingWithSeps.put(from, to);
+        mappingWithDots.put(from.replace(SEP, DOT), to.replace(SEP, DOT));
+    }
+
+    /**
+     * Gets directory this mapping was loaded from.
+     *
+     * @return configuration files directory or <code>null</code> if mapping was not loaded from user provided directory
+     */
+    public File getConfigsDir() {
+        return configsDir;
+    }
+
+    /**
+     * Gets whether this mapping is inverted.
+     *
+     * @return <code>true</code> if mapping is inverted, <code>false</code> otherwise
+     */
+    public boolean isInvert() {
+        return invert;
+    }
+
+    /**
+     * Gets packages mapping in path separator format (e.g. <code>javax/servlet</code>).
+     *
+     * @return unmodifiable packages mapping
+     */
+    public Map<String, String> getMappingWithSeps() {
+        return mappingWithSeps;
+    }
+
+    /**
+     * Gets packages mapping in dot format (e.g. <code>javax.servlet</code>).
+     *
+     * @return unmodifiable packages mapping
+     */
+    public Map<String, String> getMappingWithDots() {
+        return mappingWithDots;
+    }
+
+    /**
+     * Gets transformation engine specific form of this mapping. The compiled form is computed on the first call
+     * and shared by all subsequent calls with the same type. Compiled forms must be immutable or otherwise thread safe.
+     * Compiler must not call this method.
+     *
+     * @param type compiled form type
+     * @param compiler computes compiled form from this mapping
+     * @param <T> compiled form type
+     * @return compiled form
+     */
+    public <T> T getCompiledForm(final Class<T> type, final Function<CompiledMapping, ? extends T> compiler) {
+        Object retVal = compiledForms.get(type);
+        if (retVal == null) {
+            retVal = compiledForms.computeIfAbsent(type, k -> compiler.apply(this));
+        }
+        return type.cast(retVal);
+    }
+
+}
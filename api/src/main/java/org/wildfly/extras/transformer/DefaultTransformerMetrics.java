@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default transformation metrics implementation. All counters are striped (see {@link LongAdder}) and phase durations
+ * are recorded in histograms with power of two buckets so reporting never blocks and scales with count of threads.
+ * Percentiles computed from histograms are upper bounds of matching buckets i.e. accurate within factor of two.
+ * Can be used concurrently by multiple threads as instances of this class are thread safe.
+ */
+public final class DefaultTransformerMetrics implements TransformerMetrics {
+
+    private final ConcurrentMap<String, LongAdder> entries = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder patchedClasses = new LongAdder();
+    private final LongAdder skippedClasses = new LongAdder();
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+
+    public DefaultTransformerMetrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void entry(final String type, final long bytesIn, final long bytesOut) {
+        LongAdder counter = entries.get(type);
+        if (counter == null) {
+            counter = entries.computeIfAbsent(type, k -> new LongAdder());
+        }
+        counter.increment();
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+    }
+
+    @Override
+    public void classFile(final boolean patched) {
+        (patched ? patchedClasses : skippedClasses).increment();
+    }
+
+    @Override
+    public void phase(final Phase phase, final long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Gets processed entries counts.
+     *
+     * @return entries counts indexed by entry type, sorted by entry type
+     */
+    public Map<String, Long> getEntryCounts() {
+        final Map<String, Long> retVal = new TreeMap<>();
+        for (final Map.Entry<String, LongAdder> entry : entries.entrySet()) {
+            retVal.put(entry.getKey(), entry.getValue().sum());
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets uncompressed size of all processed source entries.
+     *
+     * @return bytes count
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Gets uncompressed size of all written entries.
+     *
+     * @return bytes count
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Gets count of class files modified by resource transformers.
+     *
+     * @return patched class files count
+     */
+    public long getPatchedClasses() {
+        return patchedClasses.sum();
+    }
+
+    /**
+     * Gets count of class files left intact by resource transformers.
+     *
+     * @return skipped class files count
+     */
+    public long getSkippedClasses() {
+        return skippedClasses.sum();
+    }
+
+    /**
+     * Gets count of recorded phase executions.
+     *
+     * @param phase transformation phase
+     * @return executions count
+     */
+    public long getCount(final Phase phase) {
+        return phases[phase.ordinal()].count.sum();
+    }
+
+    /**
+     * Gets total duration of recorded phase executions.
+     *
+     * @param phase transformation phase
+     * @return total duration in nanoseconds
+     */
+    public long getTotalNanos(final Phase phase) {
+        return phases[phase.ordinal()].total.sum();
+    }
+
+    /**
+     * Gets maximum duration of recorded phase executions.
+     *
+     * @param phase transformation phase
+     * @return maximum duration in nanoseconds or <code>zero</code> if phase was not recorded
+     */
+    public long getMaxNanos(final Phase phase) {
+        return phases[phase.ordinal()].max.get();
+    }
+
+    /**
+     * Gets upper bound of given phase executions duration percentile.
+     *
+     * @param phase transformation phase
+     * @param percentile percentile (<code>0</code> - <code>100</code>)
+     * @return duration in nanoseconds or <code>zero</code> if phase was not recorded
+     * @throws IllegalArgumentException if percentile is out of range
+     */
+    public long getPercentileNanos(final Phase phase, final double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        return phases[phase.ordinal()].percentile(percentile);
+    }
+
+    /**
+     * Prints human readable summary of collected metrics.
+     *
+     * @param out stream to print the summary to
+     */
+    public void printSummary(final PrintStream out) {
+        out.println("Transformation metrics:");
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, Long> entry : getEntryCounts().entrySet()) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(entry.getKey().isEmpty() ? "<none>" : entry.getKey()).append('=').append(entry.getValue());
+        }
+        out.println("  entries:  " + (sb.length() == 0 ? "none" : sb));
+        out.println("  bytes:    in=" + getBytesIn() + ", out=" + getBytesOut());
+        out.println("  classes:  patched=" + getPatchedClasses() + ", skipped=" + getSkippedClasses());
+        out.println(String.format(Locale.ENGLISH, "  %-10s %10s %12s %10s %10s %10s", "phase", "count", "total ms", "p50 us", "p99 us", "max us"));
+        for (final Phase phase : Phase.values()) {
+            out.println(String.format(Locale.ENGLISH, "  %-10s %10d %12.1f %10d %10d %10d", phase.name().toLowerCase(Locale.ENGLISH), getCount(phase),
+                    getTotalNanos(phase) / 1e6, toMicros(getPercentileNanos(phase, 50)), toMicros(getPercentileNanos(phase, 99)), toMicros(getMaxNanos(phase))));
+        }
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Lock-free histogram with power of two buckets, bucket <code>i</code> counts values less than <code>2^i</code>.
+     */
+    private static final class Histogram {
+
+        private static final int BUCKETS = 64;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(final long value) {
+            final long v = Math.max(0, value);
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v))].increment();
+            count.increment();
+            total.add(v);
+            max.accumulate(v);
+        }
+
+        private long percentile(final double percentile) {
+            final long[] counts = new long[BUCKETS];
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                sum += counts[i] = buckets[i].sum();
+            }
+            if (sum == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(sum * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+}
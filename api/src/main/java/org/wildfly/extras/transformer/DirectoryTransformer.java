@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transforms exploded archive. Every regular file of source directory tree is transformed as if it was
+ * an archive entry and written to the target directory. Symbolic links are followed. Files are transformed concurrently
+ * if {@link ArchiveTransformer#parallelism} is greater than <code>1</code>. Existing target files are overwritten.
+ */
+final class DirectoryTransformer {
+
+    /**
+     * Count of files submitted for concurrent transformation per thread.
+     */
+    private static final int PENDING_FILES_PER_THREAD = 4;
+    private final ArchiveTransformer archiveTransformer;
+    private final Path inDir;
+    private final Path outDir;
+    private final Set<String> generatedResources = ConcurrentHashMap.newKeySet();
+    private volatile boolean transformed;
+
+    DirectoryTransformer(final ArchiveTransformer archiveTransformer, final Path inDir, final Path outDir) {
+        this.archiveTransformer = archiveTransformer;
+        this.inDir = inDir.toAbsolutePath().normalize();
+        this.outDir = outDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Transforms the source directory tree.
+     *
+     * @return <code>true</code> if some file was transformed, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean transform() throws IOException {
+        if (outDir.startsWith(inDir)) {
+            throw new IOException("Target directory " + outDir + " cannot be located inside source directory " + inDir);
+        }
+        if (Files.exists(outDir) && !Files.isDirectory(outDir)) {
+            Files.delete(outDir);
+        }
+        if (archiveTransformer.parallelism > 1) {
+            transformConcurrently();
+        } else {
+            final ResourceTransformer t = archiveTransformer.newResourceTransformer();
+            walk(file -> transformFile(t, file));
+        }
+        return transformed;
+    }
+
+    /**
+     * Transforms files in the fork-join pool. Count of files submitted but not yet transformed is bounded
+     * so huge directory trees are never held in memory. The first failure stops the directory walk.
+     */
+    private void transformConcurrently() throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(archiveTransformer.parallelism);
+        final ThreadLocal<ResourceTransformer> transformers = new ThreadLocal<>();
+        final int maxPendingFiles = archiveTransformer.parallelism * PENDING_FILES_PER_THREAD;
+        final Semaphore permits = new Semaphore(maxPendingFiles);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            walk(file -> {
+                acquire(permits, 1);
+                if (failure.get() != null) {
+                    permits.release();
+                    throw ArchiveTransformer.asIOException(failure.get());
+                }
+                try {
+                    pool.execute(() -> {
+                        try {
+                            transformFile(archiveTransformer.getResourceTransformer(transformers), file);
+                        } catch (final Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            });
+            // wait for all submitted files
+            acquire(permits, maxPendingFiles);
+            if (failure.get() != null) {
+                throw ArchiveTransformer.asIOException(failure.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void acquire(final Semaphore permits, final int count) throws InterruptedIOException {
+        try {
+            permits.acquire(count);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Directory transformation interrupted");
+        }
+    }
+
+    /**
+     * Passes regular files of the source directory tree to the file handler. Symbolic links are followed
+     * and the walk fails on symbolic link loops, broken symbolic links and other files which are neither
+     * regular files nor directories, so no file is left out of the target directory silently.
+     * Target directories are created only when some file is written to them so directories whose content
+     * was renamed are not mirrored.
+     */
+    private void walk(final FileHandler handler) throws IOException {
+        Files.createDirectories(outDir);
+        Files.walkFileTree(inDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile()) {
+                    throw new IOException("File " + file + " is neither regular file nor directory");
+                }
+                handler.file(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                if (e instanceof FileSystemLoopException) {
+                    throw new IOException("Directory " + file + " is symbolic link loop", e);
+                }
+                throw e;
+            }
+        });
+    }
+
+    private void transformFile(final ResourceTransformer t, final Path file) throws IOException {
+        final String name = toResourceName(inDir.relativize(file));
+        final Path outFile = outDir.resolve(inDir.relativize(file));
+        if (archiveTransformer.isNestedArchive(name) && isZipFile(file)) {
+            // files are already transformed concurrently, nested archive entries don't have to be
+            Files.createDirectories(outFile.getParent());
+            if (archiveTransformer.transformArchive(file.toFile(), outFile.toFile(), 1)) {
+                transformed = true;
+            }
+            return;
+        }
+        final TransformerMetrics metrics = archiveTransformer.metrics;
+        final long size = Files.size(file);
+        if (size == 0) {
+            Files.createDirectories(outFile.getParent());
+            Files.copy(file, outFile, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        if (size > ArchiveTransformer.STREAMING_THRESHOLD) {
+            final ResourceTransformer.StreamedResource newResource = t.transformStreamed(name);
+            if (newResource != null) {
+                final long start = ArchiveTransformer.startPhase(metrics);
+                final long bytesOut = transformStreamed(file, name, newResource);
+                ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+                if (metrics != null) {
+                    metrics.entry(ArchiveTransformer.getEntryType(name), size, bytesOut);
+                }
+                return;
+            }
+        }
+        long start = ArchiveTransformer.startPhase(metrics);
+        final ResourceTransformer.Resource oldResource = new ResourceTransformer.Resource(name, readFile(file, size));
+        ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.READ, start);
+        final ResourceTransformer.Resource[] newResources = archiveTransformer.transformResource(t, oldResource);
+        start = ArchiveTransformer.startPhase(metrics);
+        if (newResources.length == 0) {
+            Files.createDirectories(outFile.getParent());
+            Files.copy(file, outFile, StandardCopyOption.REPLACE_EXISTING);
+            ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+            if (metrics != null) {
+                metrics.entry(ArchiveTransformer.getEntryType(name), size, size);
+            }
+            return;
+        }
+        transformed = true;
+        ResourceTransformer.Resource newResource;
+        long bytesOut = 0;
+        for (int i = 0; i < newResources.length; i++) {
+            newResource = newResources[i];
+            if (i > 0 && !generatedResources.add(newResource.getName())) {
+                continue; // already written
+            }
+            final Path newFile = outDir.resolve(newResource.getName());
+            Files.createDirectories(newFile.getParent());
+            if (i == 0 && newResource.getData() == oldResource.getData()) {
+                Files.copy(file, newFile, StandardCopyOption.REPLACE_EXISTING); // file was only renamed
+            } else {
+                writeFile(newFile, newResource.getData());
+            }
+            bytesOut += newResource.getData().length;
+        }
+        ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.WRITE, start);
+        if (metrics != null) {
+            metrics.entry(ArchiveTransformer.getEntryType(name), size, bytesOut);
+        }
+    }
+
+    /**
+     * Transforms file too big to be held in memory. File data are streamed in chunks.
+     *
+     * @return size of transformed file
+     */
+    private long transformStreamed(final Path file, final String name, final ResourceTransformer.StreamedResource newResource) throws IOException {
+        final Path newFile = outDir.resolve(newResource.getName());
+        if (!newResource.getName().equals(name)) {
+            transformed = true;
+        }
+        Files.createDirectories(newFile.getParent());
+        if (newResource.getReplacements().isEmpty()) {
+            Files.copy(file, newFile, StandardCopyOption.REPLACE_EXISTING);
+            return Files.size(newFile);
+        }
+        transformed = true;
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new ReplacingOutputStream(Files.newOutputStream(newFile), newResource.getReplacements())) {
+            ArchiveTransformer.transfer(in, out);
+        }
+        return Files.size(newFile);
+    }
+
+    private static byte[] readFile(final Path file, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + file + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+        final byte[] data = new byte[(int) size];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("File " + file + " was truncated while being read");
+                }
+            }
+        }
+        return data;
+    }
+
+    private static void writeFile(final Path file, final byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static boolean isZipFile(final Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 4)) {
+            return ArchiveTransformer.isZipStream(in);
+        }
+    }
+
+    private static String toResourceName(final Path relativePath) {
+        return File.separatorChar == '/' ? relativePath.toString() : relativePath.toString().replace(File.separatorChar, '/');
+    }
+
+    private interface FileHandler {
+        void file(Path file) throws IOException;
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import static org.wildfly.extras.transformer.ZipArchiveReader.DEFLATED;
+import static org.wildfly.extras.transformer.ZipArchiveReader.STORED;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses archive entries according to compression settings configured per entry type (entry name suffix).
+ * Entries bigger than {@link #CHUNKED_THRESHOLD} are deflated in independent chunks, every chunk is primed
+ * with the last 32 KiB of its preceding chunk and all but the last chunk end on byte boundary
+ * (see {@link Deflater#SYNC_FLUSH}) so concatenated chunks form single valid deflate stream. When called from
+ * fork-join pool the chunks are deflated concurrently. Entries are always split the same way so produced
+ * data don't depend on parallelism. Can be used concurrently by multiple threads as instances of this class are thread safe.
+ */
+final class EntryCompressor {
+
+    static final int CHUNK_SIZE = 128 * 1024;
+    static final int CHUNKED_THRESHOLD = 4 * CHUNK_SIZE;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int MAX_POOLED_DEFLATERS = 64;
+    /**
+     * Entry name suffixes ordered from the longest one so the most specific suffix wins.
+     */
+    private final String[] suffixes;
+    private final int[] methods;
+    private final int[] levels;
+    private final TransformerMetrics metrics;
+    /**
+     * Idle deflaters indexed by compression level + 1.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedQueue<Deflater>[] deflaters = new ConcurrentLinkedQueue[Deflater.BEST_COMPRESSION + 2];
+
+    /**
+     * Creates entries compressor.
+     *
+     * @param compressions compression method and level indexed by lower case entry name suffix,
+     * empty suffix defines default settings
+     * @param metrics metrics to report {@link TransformerMetrics.Phase#DEFLATE} phase to or <code>null</code>
+     */
+    EntryCompressor(final Map<String, int[]> compressions, final TransformerMetrics metrics) {
+        this.metrics = metrics;
+        final List<String> sorted = new ArrayList<>(compressions.keySet());
+        sorted.sort((s1, s2) -> s2.length() - s1.length());
+        suffixes = new String[sorted.size() + 1];
+        methods = new int[suffixes.length];
+        levels = new int[suffixes.length];
+        for (int i = 0; i < sorted.size(); i++) {
+            suffixes[i] = sorted.get(i);
+            methods[i] = compressions.get(sorted.get(i))[0];
+            levels[i] = compressions.get(sorted.get(i))[1];
+        }
+        suffixes[sorted.size()] = "";
+        methods[sorted.size()] = DEFLATED;
+        levels[sorted.size()] = Deflater.DEFAULT_COMPRESSION;
+        for (int i = 0; i < deflaters.length; i++) {
+            deflaters[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Gets compression method of given entry.
+     *
+     * @param name entry name
+     * @return either {@link ZipArchiveReader#STORED} or {@link ZipArchiveReader#DEFLATED}
+     */
+    int getMethod(final String name) {
+        return methods[indexOf(name)];
+    }
+
+    /**
+     * Gets deflate compression level of given entry. Entries which data are streamed cannot be stored
+     * as their size and checksum are not known in advance, these are deflated with {@link Deflater#NO_COMPRESSION} instead.
+     *
+     * @param name entry name
+     * @return compression level
+     */
+    int getLevel(final String name) {
+        final int i = indexOf(name);
+        return methods[i] == STORED ? Deflater.NO_COMPRESSION : levels[i];
+    }
+
+    private int indexOf(final String name) {
+        final String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        for (int i = 0; i < suffixes.length; i++) {
+            if (lowerCaseName.endsWith(suffixes[i])) return i;
+        }
+        throw new IllegalStateException(); // never happens, empty suffix matches any name
+    }
+
+    /**
+     * Compresses entry data.
+     *
+     * @param name entry name
+     * @param data uncompressed entry data
+     * @return compressed entry
+     */
+    CompressedEntry compress(final String name, final byte[] data) {
+        final long start = ArchiveTransformer.startPhase(metrics);
+        try {
+            return compress(indexOf(name), data);
+        } finally {
+            ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.DEFLATE, start);
+        }
+    }
+
+    private CompressedEntry compress(final int i, final byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (methods[i] == STORED) {
+            return new CompressedEntry(STORED, crc.getValue(), data.length, data, data.length);
+        }
+        if (data.length < CHUNKED_THRESHOLD) {
+            final Deflater deflater = getDeflater(levels[i]);
+            try {
+                final Chunk chunk = deflate(deflater, data, 0, data.length, true);
+                return new CompressedEntry(DEFLATED, crc.getValue(), data.length, chunk.data, chunk.length);
+            } finally {
+                release(deflater, levels[i]);
+            }
+        }
+        final List<ChunkTask> tasks = new ArrayList<>((data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            tasks.add(new ChunkTask(data, offset, Math.min(CHUNK_SIZE, data.length - offset), levels[i]));
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (final ChunkTask task : tasks) {
+                task.invoke();
+            }
+        }
+        int compressedSize = 0;
+        for (final ChunkTask task : tasks) {
+            compressedSize += task.join().length;
+        }
+        final byte[] compressedData = new byte[compressedSize];
+        int offset = 0;
+        Chunk chunk;
+        for (final ChunkTask task : tasks) {
+            chunk = task.join();
+            System.arraycopy(chunk.data, 0, compressedData, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return new CompressedEntry(DEFLATED, crc.getValue(), data.length, compressedData, compressedSize);
+    }
+
+    private static Chunk deflate(final Deflater deflater, final byte[] data, final int offset, final int length, final boolean last) {
+        deflater.reset();
+        if (offset > 0) {
+            final int dictionarySize = Math.min(offset, DICTIONARY_SIZE);
+            deflater.setDictionary(data, offset - dictionarySize, dictionarySize);
+        }
+        deflater.setInput(data, offset, length);
+        byte[] buffer = new byte[Math.max(64, length / 2)];
+        int compressedSize = 0;
+        if (last) {
+            deflater.finish();
+        }
+        while (true) {
+            if (compressedSize == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            compressedSize += deflater.deflate(buffer, compressedSize, buffer.length - compressedSize, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            if (last ? deflater.finished() : compressedSize < buffer.length) {
+                return new Chunk(buffer, compressedSize);
+            }
+        }
+    }
+
+    private Deflater getDeflater(final int level) {
+        final Deflater retVal = deflaters[level + 1].poll();
+        return retVal != null ? retVal : new Deflater(level, true);
+    }
+
+    private void release(final Deflater deflater, final int level) {
+        if (deflaters[level + 1].size() < MAX_POOLED_DEFLATERS) {
+            deflaters[level + 1].offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compressed archive entry data.
+     */
+    static final class CompressedEntry {
+
+        final int method;
+        final long crc;
+        final long size;
+        final byte[] data;
+        final int length;
+
+        private CompressedEntry(final int method, final long crc, final long size, final byte[] data, final int length) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class Chunk {
+
+        private final byte[] data;
+        private final int length;
+
+        private Chunk(final byte[] data, final int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private final class ChunkTask extends RecursiveTask<Chunk> {
+
+        private static final long serialVersionUID = 1L;
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+        private final int level;
+
+        private ChunkTask(final byte[] data, final int offset, final int length, final int level) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.level = level;
+        }
+
+        @Override
+        protected Chunk compute() {
+            final Deflater deflater = getDeflater(level);
+            try {
+                return deflate(deflater, data, offset, length, offset + length == data.length);
+            } finally {
+                release(deflater, level);
+            }
+        }
+    }
+
+}
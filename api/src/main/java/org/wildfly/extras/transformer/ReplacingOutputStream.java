@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Stream replacing byte sequences in data written to it. Data are processed in fixed size chunks,
+ * only the chunk tail that can be a prefix of some replaced sequence is held back until more data are written,
+ * so memory usage doesn't depend on data size. Replaced sequences are searched left to right and matches
+ * don't overlap (the same way {@link String#replace(CharSequence, CharSequence)} works). If more sequences
+ * match at the same position the one defined first wins.
+ */
+final class ReplacingOutputStream extends FilterOutputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final byte[][] from;
+    private final byte[][] to;
+    private final boolean[] firstBytes = new boolean[256];
+    private final int maxLength;
+    private final byte[] chunk;
+    private int chunkSize;
+    private boolean closed;
+
+    ReplacingOutputStream(final OutputStream out, final Map<String, String> replacements) {
+        super(out);
+        from = new byte[replacements.size()][];
+        to = new byte[replacements.size()][];
+        int maxLength = 1;
+        int i = 0;
+        for (final Map.Entry<String, String> replacement : replacements.entrySet()) {
+            from[i] = replacement.getKey().getBytes(UTF_8);
+            to[i] = replacement.getValue().getBytes(UTF_8);
+            if (from[i].length == 0) {
+                throw new IllegalArgumentException("Replaced sequence cannot be empty");
+            }
+            firstBytes[from[i][0] & 0xFF] = true;
+            maxLength = Math.max(maxLength, from[i].length);
+            i++;
+        }
+        this.maxLength = maxLength;
+        chunk = new byte[CHUNK_SIZE + maxLength];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (chunkSize == chunk.length) {
+            process(false);
+        }
+        chunk[chunkSize++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        int count;
+        while (len > 0) {
+            if (chunkSize == chunk.length) {
+                process(false);
+            }
+            count = Math.min(len, chunk.length - chunkSize);
+            System.arraycopy(b, off, chunk, chunkSize, count);
+            chunkSize += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // held back chunk tail is written on close
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            process(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes processed chunk data. Unless this is the last chunk, the tail shorter than the longest
+     * replaced sequence is moved to the chunk start as it may be completed by following data.
+     */
+    private void process(final boolean last) throws IOException {
+        final int limit = last ? chunkSize : chunkSize - maxLength + 1;
+        int written = 0;
+        int i = 0;
+        int match;
+        while (i < limit) {
+            if (firstBytes[chunk[i] & 0xFF] && (match = matchAt(i)) != -1) {
+                out.write(chunk, written, i - written);
+                out.write(to[match]);
+                i += from[match].length;
+                written = i;
+            } else {
+                i++;
+            }
+        }
+        if (last) {
+            out.write(chunk, written, chunkSize - written);
+            chunkSize = 0;
+        } else {
+            // i can exceed limit if the last match overlapped held back tail
+            out.write(chunk, written, i - written);
+            System.arraycopy(chunk, i, chunk, 0, chunkSize - i);
+            chunkSize -= i;
+        }
+    }
+
+    private int matchAt(final int position) {
+        byte[] sequence;
+        outer:
+        for (int i = 0; i < from.length; i++) {
+            sequence = from[i];
+            if (position + sequence.length > chunkSize) continue;
+            for (int j = 0; j < sequence.length; j++) {
+                if (chunk[position + j] != sequence[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+}
@@ -15,101 +15,58 @@
  */
 package org.wildfly.extras.transformer;
 
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Properties;
 
 /**
  * Resource transformer tries to convert given resource to another resource(s) by applying configured transformation
  * rules.
- * Cannot be used concurrently by multiple threads as instances of this class are not thread safe.
+ * Thread safety is up to each transformation engine. Callers must not use an instance concurrently
+ * by multiple threads unless the engine documents its resource transformers as thread safe.
  *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
 public abstract class ResourceTransformer {
 
-    private static final String DEFAULT_CONFIG = "default.mapping";
-    private static final int MAX_MAPPINGS = 0xFFFF;
-    private static final char DOT = '.';
-    private static final char SEP = '/';
-    protected final Map<String, String> mappingWithSeps = new HashMap<>();
-    protected final Map<String, String> mappingWithDots = new HashMap<>();
+    protected final CompiledMapping mapping;
+    protected final Map<String, String> mappingWithSeps;
+    protected final Map<String, String> mappingWithDots;
     protected final boolean verbose;
     protected final boolean invert;
+    /**
+     * Transformation metrics to report processed class files to or <code>null</code> if metrics are disabled.
+     */
+    protected final TransformerMetrics metrics;
+    /**
+     * Fingerprint of this transformer configuration computed lazily by {@link TransformationCache}.
+     */
+    volatile byte[] cacheFingerprint;
 
     protected ResourceTransformer(final File configsDir, final boolean verbose, final boolean invert) throws IOException {
-        this.verbose = verbose;
-        this.invert = invert;
-        final InputStream mappingFile;
-        final File userConfig = new File(configsDir, DEFAULT_CONFIG);
-        if (userConfig.exists() && userConfig.isFile()) {
-            mappingFile = new FileInputStream(userConfig);
-        } else {
-            mappingFile = ResourceTransformer.class.getResourceAsStream(SEP + DEFAULT_CONFIG);
-        }
-        if (mappingFile == null) {
-            throw new IllegalArgumentException("Couldn't find specified config file neither on file system nor on class path");
-        }
-        try {
-            final Properties packagesMapping = new Properties();
-            packagesMapping.load(mappingFile);
-            String to;
-            for (String from : packagesMapping.stringPropertyNames()) {
-                to = packagesMapping.getProperty(from);
-                if (to.indexOf(DOT) != -1 || from.indexOf(DOT) != -1) {
-                    throw new IllegalArgumentException("Packages mapping config file must be property file in path separator format only");
-                }
-                if (invert) {
-                    addMapping(to, from);
-                } else {
-                    addMapping(from, to);
-                }
-            }
-            if (mappingWithSeps.isEmpty()) {
-                throw new IllegalStateException("No mapping was defined in packages mapping config file");
-            }
-        } finally {
-            safeClose(mappingFile);
-        }
+        this(CompiledMapping.load(configsDir, invert), verbose);
     }
 
-    private static void safeClose(final Closeable c) {
-        try {
-            if (c != null) {
-                c.close();
-            }
-        } catch (final Throwable ignored) {
-        }
+    protected ResourceTransformer(final CompiledMapping mapping, final boolean verbose) {
+        this(mapping, verbose, null);
     }
 
-    private void addMapping(final String from, final String to) {
-        if (from == null || to == null) {
-            throw new IllegalArgumentException("Package definition cannot be null");
-        }
-        if (from.length() == 0 || to.length() == 0) {
-            throw new IllegalArgumentException("Package definition cannot be empty string");
-        }
-        if (from.equals(to)) {
-            throw new IllegalArgumentException("Identical package mapping detected: " + from + " -> " + to);
-        }
-        for (String key : mappingWithSeps.keySet()) {
-            if (key.contains(from)) {
-                throw new IllegalArgumentException("Package " + from + " is substring of package " + key);
-            }
-            if (from.contains(key)) {
-                throw new IllegalArgumentException("Package " + key + " is substring of package " + from);
-            }
-        }
-        if (mappingWithSeps.size() > MAX_MAPPINGS) {
-            throw new IllegalStateException("Packages mapping count exceeded value " + MAX_MAPPINGS);
-        }
-        mappingWithSeps.put(from, to);
-        mappingWithDots.put(from.replace(SEP, DOT), to.replace(SEP, DOT));
+    /**
+     * Creates resource transformer reporting to transformation metrics (see {@link ArchiveTransformer#getMetrics()}).
+     *
+     * @param mapping packages mapping
+     * @param verbose verbose mode
+     * @param metrics transformation metrics or <code>null</code> if metrics are disabled
+     */
+    protected ResourceTransformer(final CompiledMapping mapping, final boolean verbose, final TransformerMetrics metrics) {
+        if (mapping == null) throw new IllegalArgumentException("Parameter cannot be null");
+        this.metrics = metrics;
+        this.mapping = mapping;
+        this.mappingWithSeps = mapping.getMappingWithSeps();
+        this.mappingWithDots = mapping.getMappingWithDots();
+        this.verbose = verbose;
+        this.invert = mapping.isInvert();
     }
 
     /**
@@ -121,6 +78,8 @@ public abstract class ResourceTransformer {
      * resource at array index <code>zero</code> is always considered to be replacement of original resource
      * and other resources (since array index of <code>1</code> including) represent additional resources
      * created dynamically that must be added to target environment (e.g. jar archive or defining class loader).
+     * The same additional resource is returned with every transformed resource that depends on it,
+     * so the caller is responsible for adding it to target environment only once.
      *
      * @param r the resource to be transformed. The buffer returned by {@link Resource#getData()} method must not be
      * modified.
@@ -130,6 +89,21 @@ public abstract class ResourceTransformer {
      */
     protected abstract Resource[] transform(final Resource r);
 
+    /**
+     * The implementation of this method describes how to transform resource which data are too big to be held
+     * in memory. Such resource data are never passed to the transformer, they are streamed in chunks instead
+     * and the returned streamed resource describes the new resource name and byte sequences to be replaced
+     * in the streamed data. If the implementing method needs whole resource data (e.g. class files)
+     * it must return <code>null</code> and resource is transformed via {@link #transform(Resource)} if its size permits.
+     * Default implementation returns <code>null</code>.
+     *
+     * @param name the name of the resource to be transformed
+     * @return either <code>null</code> if resource cannot be transformed as stream or streamed resource
+     */
+    protected StreamedResource transformStreamed(final String name) {
+        return null;
+    }
+
     /**
      * Resource data.
      */
@@ -171,4 +145,54 @@ public abstract class ResourceTransformer {
         }
     }
 
+    /**
+     * Streamed resource transformation.
+     */
+    public static final class StreamedResource {
+
+        private final String name;
+        private final Map<String, String> replacements;
+
+        /**
+         * Constructor for resources which data are not modified.
+         *
+         * @param name new resource name
+         */
+        public StreamedResource(final String name) {
+            this(name, Collections.emptyMap());
+        }
+
+        /**
+         * Constructor
+         *
+         * @param name new resource name
+         * @param replacements byte sequences (encoded in UTF-8) to be replaced in resource data
+         */
+        public StreamedResource(final String name, final Map<String, String> replacements) {
+            if (name == null || replacements == null) {
+                throw new NullPointerException();
+            }
+            this.name = name;
+            this.replacements = replacements;
+        }
+
+        /**
+         * Gets new resource name.
+         *
+         * @return resource name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets byte sequences to be replaced in resource data. Empty map means resource data are not modified.
+         *
+         * @return replacements
+         */
+        public Map<String, String> getReplacements() {
+            return replacements;
+        }
+    }
+
 }
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent content addressed transformation cache. Cached transformation results are keyed by digest of
+ * transformed data, transformation engine identifier and fingerprint of transformation configuration
+ * (loaded packages mapping including the invert flag). Cache entries are written atomically so single cache directory
+ * can be shared by multiple processes. Least recently used entries are evicted once cache size exceeds its limit.
+ * Cache I/O failures are never propagated, failing cache lookup is treated as cache miss.
+ * Can be used concurrently by multiple threads as instances of this class are thread safe.
+ */
+public final class TransformationCache {
+
+    /**
+     * Default cache size limit in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int RESOURCES_MAGIC = 0x57465452;
+    private static final int UNCHANGED_DATA = -1;
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+    /**
+     * Fingerprint of transformers whose engine cannot be identified, such transformers are never cached.
+     */
+    private static final byte[] UNCACHEABLE = new byte[0];
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<>();
+    private static final ClassValue<String> ENGINE_IDS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(final Class<?> engineClass) {
+            return computeEngineId(engineClass);
+        }
+    };
+    private final Path dir;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong(-1);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    TransformationCache(final File dir, final long maxSize) {
+        this.dir = dir.toPath().toAbsolutePath().normalize();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets cache directory.
+     *
+     * @return cache directory
+     */
+    public File getDirectory() {
+        return dir.toFile();
+    }
+
+    /**
+     * Gets cache size limit.
+     *
+     * @return cache size limit in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets approximate cache size. Cache directory can be shared with other processes
+     * so real size is recomputed only when cache entries are evicted.
+     *
+     * @return cache size in bytes
+     */
+    public long getSize() {
+        long retVal = size.get();
+        if (retVal == -1) {
+            synchronized (evictionLock) {
+                retVal = size.get();
+                if (retVal == -1) {
+                    retVal = 0;
+                    for (final CacheFile cacheFile : listCacheFiles()) {
+                        retVal += cacheFile.size;
+                    }
+                    size.set(retVal);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets count of cache lookups that found cached transformation result.
+     *
+     * @return cache hits count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets count of cache lookups that didn't find cached transformation result.
+     *
+     * @return cache misses count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Transforms resource unless the transformation result is already cached. Class files served from cache
+     * are reported to transformation metrics here as resource transformer never sees them.
+     *
+     * @param t resource transformer
+     * @param r resource to be transformed
+     * @return transformation result as defined by {@link ResourceTransformer#transform(ResourceTransformer.Resource)}
+     */
+    ResourceTransformer.Resource[] transform(final ResourceTransformer t, final ResourceTransformer.Resource r) {
+        byte[] fingerprint = t.cacheFingerprint;
+        if (fingerprint == null) {
+            t.cacheFingerprint = fingerprint = fingerprint(t);
+        }
+        if (fingerprint == UNCACHEABLE) {
+            return t.transform(r);
+        }
+        final MessageDigest digest = getDigest();
+        digest.update(fingerprint);
+        digest.update(r.getName().getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(r.getData());
+        final Path file = getFile(digest.digest());
+        ResourceTransformer.Resource[] retVal = readResources(file, r);
+        if (retVal != null) {
+            hits.increment();
+            if (t.metrics != null && r.getName().endsWith(CLASS_SUFFIX)) {
+                t.metrics.classFile(isPatched(r, retVal));
+            }
+            return retVal;
+        }
+        misses.increment();
+        retVal = t.transform(r);
+        writeResources(file, r, retVal);
+        return retVal;
+    }
+
+    /**
+     * Cached class file was patched if some of its resources has different content. Renamed class file
+     * with unchanged content shares data with the original resource (see {@link #readResources(Path, ResourceTransformer.Resource)}).
+     */
+    private static boolean isPatched(final ResourceTransformer.Resource r, final ResourceTransformer.Resource[] resources) {
+        for (final ResourceTransformer.Resource resource : resources) {
+            if (resource.getData() != r.getData()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Transforms archive unless the transformation result is already cached.
+     * Used by transformation engines that don't transform archives entry by entry.
+     *
+     * @param engineId transformation engine identifier or <code>null</code> if engine cannot be identified
+     * @param fingerprint fingerprint of transformation configuration
+     * @param inJarFile archive file to be consumed
+     * @param outJarFile archive file to be produced
+     * @param transformation archive transformation
+     * @return <code>true</code> if transformations were applied to archive, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean transform(final String engineId, final byte[] fingerprint, final File inJarFile, final File outJarFile,
+                      final ArchiveTransformer.Transformation transformation) throws IOException {
+        if (engineId == null) {
+            return transformation.transform(inJarFile, outJarFile);
+        }
+        final MessageDigest digest = getDigest();
+        digest.update(engineId.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(fingerprint);
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        try (InputStream in = Files.newInputStream(inJarFile.toPath())) {
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        final Path file = getFile(digest.digest());
+        final Boolean cached = readArchive(file, outJarFile.toPath());
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        final boolean retVal = transformation.transform(inJarFile, outJarFile);
+        writeArchive(file, outJarFile.toPath(), retVal);
+        return retVal;
+    }
+
+    private static byte[] fingerprint(final ResourceTransformer t) {
+        final String engineId = engineId(t.getClass());
+        if (engineId == null) {
+            return UNCACHEABLE;
+        }
+        final MessageDigest digest = getDigest();
+        digest.update(engineId.getBytes(UTF_8));
+        digest.update((byte) (t.invert ? 1 : 0));
+        // mapping with dots is derived from mapping with separators
+        for (final Map.Entry<String, String> mapping : new TreeMap<>(t.mappingWithSeps).entrySet()) {
+            digest.update((byte) 0);
+            digest.update(mapping.getKey().getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(mapping.getValue().getBytes(UTF_8));
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Gets transformation engine identifier. Engine version and digest of engine code (engine and api class files
+     * or archives) are part of it so cache entries produced by other transformation engine builds are never used,
+     * not even by snapshot builds sharing the same version. Identifier is computed only once per engine class.
+     *
+     * @param engineClass transformation engine implementation class
+     * @return engine identifier or <code>null</code> if engine code cannot be read and engine version
+     * is either missing or snapshot version
+     */
+    public static String engineId(final Class<?> engineClass) {
+        return ENGINE_IDS.get(engineClass);
+    }
+
+    private static String computeEngineId(final Class<?> engineClass) {
+        final Package p = engineClass.getPackage();
+        final String version = p != null ? p.getImplementationVersion() : null;
+        final MessageDigest digest = newDigest(); // thread local digest may be in use by caller
+        final Path engineCode = getCodeLocation(engineClass);
+        final Path apiCode = getCodeLocation(TransformationCache.class);
+        if (engineCode != null && apiCode != null && digestCode(digest, engineCode) && (apiCode.equals(engineCode) || digestCode(digest, apiCode))) {
+            return engineClass.getName() + ":" + (version != null ? version : "unknown") + ":" + toHex(digest.digest());
+        }
+        if (version == null || version.endsWith(SNAPSHOT_SUFFIX)) {
+            return null; // engine code changes cannot be detected
+        }
+        return engineClass.getName() + ":" + version;
+    }
+
+    private static Path getCodeLocation(final Class<?> clazz) {
+        try {
+            final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+            final URL location = codeSource != null ? codeSource.getLocation() : null;
+            if (location == null || !"file".equals(location.getProtocol())) {
+                return null;
+            }
+            return new File(location.toURI()).toPath().toAbsolutePath().normalize();
+        } catch (final SecurityException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Digests content of code archive or all files of code directory.
+     *
+     * @return <code>true</code> if code was digested, <code>false</code> if code couldn't be read
+     */
+    private static boolean digestCode(final MessageDigest digest, final Path code) {
+        try {
+            if (Files.isRegularFile(code)) {
+                digestFile(digest, code);
+                return true;
+            }
+            if (!Files.isDirectory(code)) {
+                return false;
+            }
+            final List<Path> files;
+            try (Stream<Path> walk = Files.walk(code)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (final Path file : files) {
+                digest.update(code.relativize(file).toString().getBytes(UTF_8));
+                digest.update((byte) 0);
+                digestFile(digest, file);
+            }
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void digestFile(final MessageDigest digest, final Path file) throws IOException {
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    private ResourceTransformer.Resource[] readResources(final Path file, final ResourceTransformer.Resource r) {
+        final byte[] content = read(file);
+        if (content == null) return null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+            if (in.readInt() != RESOURCES_MAGIC) {
+                throw new IOException("Corrupted cache entry");
+            }
+            final ResourceTransformer.Resource[] retVal = new ResourceTransformer.Resource[in.readInt()];
+            String name;
+            int length;
+            byte[] data;
+            for (int i = 0; i < retVal.length; i++) {
+                name = in.readUTF();
+                length = in.readInt();
+                if (length == UNCHANGED_DATA) {
+                    data = r.getData();
+                } else {
+                    data = new byte[length];
+                    in.readFully(data);
+                }
+                retVal[i] = new ResourceTransformer.Resource(name, data);
+            }
+            return retVal;
+        } catch (final IOException | RuntimeException e) {
+            delete(file);
+            return null;
+        }
+    }
+
+    private void writeResources(final Path file, final ResourceTransformer.Resource r, final ResourceTransformer.Resource[] resources) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(content)) {
+            out.writeInt(RESOURCES_MAGIC);
+            out.writeInt(resources.length);
+            for (final ResourceTransformer.Resource resource : resources) {
+                out.writeUTF(resource.getName());
+                if (resource.getData() == r.getData()) {
+                    // preserve information resource was only renamed
+                    out.writeInt(UNCHANGED_DATA);
+                } else {
+                    out.writeInt(resource.getData().length);
+                    out.write(resource.getData());
+                }
+            }
+        } catch (final IOException e) {
+            return;
+        }
+        write(file, content::writeTo);
+    }
+
+    private Boolean readArchive(final Path file, final Path outJarFile) {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outJarFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            touch(file);
+            final ByteBuffer transformed = ByteBuffer.allocate(1);
+            if (in.read(transformed, 0) != 1) {
+                throw new IOException("Corrupted cache entry");
+            }
+            final long size = in.size() - 1;
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position + 1, size - position, out);
+            }
+            return transformed.get(0) != 0;
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            delete(file);
+            return null;
+        }
+    }
+
+    private void writeArchive(final Path file, final Path outJarFile, final boolean transformed) {
+        write(file, out -> {
+            out.write(transformed ? 1 : 0);
+            Files.copy(outJarFile, out);
+        });
+    }
+
+    private byte[] read(final Path file) {
+        try {
+            final byte[] retVal = Files.readAllBytes(file);
+            touch(file);
+            return retVal;
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes cache entry to temporary file first and moves it to its final location atomically
+     * so other threads and processes never see partially written cache entries.
+     */
+    private void write(final Path file, final ContentWriter writer) {
+        Path tempFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_FILE_SUFFIX);
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                writer.write(out);
+            }
+            final long entrySize = Files.size(tempFile);
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                return;
+            }
+            tempFile = null;
+            if (getSize() + entrySize > maxSize) {
+                evict();
+            } else {
+                size.addAndGet(entrySize);
+            }
+        } catch (final IOException ignored) {
+            // caching is best effort
+        } finally {
+            if (tempFile != null) {
+                delete(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Removes least recently used cache entries until cache size drops to 90% of its limit.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            final List<CacheFile> cacheFiles = listCacheFiles();
+            long currentSize = 0;
+            for (final CacheFile cacheFile : cacheFiles) {
+                currentSize += cacheFile.size;
+            }
+            Collections.sort(cacheFiles);
+            final long targetSize = maxSize / 10 * 9;
+            for (final CacheFile cacheFile : cacheFiles) {
+                if (currentSize <= targetSize) break;
+                if (delete(cacheFile.path)) {
+                    currentSize -= cacheFile.size;
+                }
+            }
+            size.set(currentSize);
+        }
+    }
+
+    private List<CacheFile> listCacheFiles() {
+        final List<CacheFile> retVal = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return retVal;
+        final long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> subDirs = Files.newDirectoryStream(dir)) {
+            for (final Path subDir : subDirs) {
+                if (!Files.isDirectory(subDir)) continue;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(subDir)) {
+                    long lastModified;
+                    for (final Path file : files) {
+                        try {
+                            lastModified = Files.getLastModifiedTime(file).toMillis();
+                            if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                                if (now - lastModified > STALE_TEMP_FILE_AGE) {
+                                    delete(file); // left behind by crashed process
+                                }
+                                continue;
+                            }
+                            retVal.add(new CacheFile(file, lastModified, Files.size(file)));
+                        } catch (final IOException ignored) {
+                            // removed by another process
+                        }
+                    }
+                }
+            }
+        } catch (final IOException ignored) {
+            // best effort
+        }
+        return retVal;
+    }
+
+    private Path getFile(final byte[] key) {
+        final String name = toHex(key);
+        return dir.resolve(name.substring(0, 2)).resolve(name.substring(2));
+    }
+
+    private static String toHex(final byte[] data) {
+        final char[] hex = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[data[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static void touch(final Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException ignored) {
+            // removed by another process
+        }
+    }
+
+    private static boolean delete(final Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (final IOException ignored) {
+            return false;
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        MessageDigest retVal = DIGESTS.get();
+        if (retVal == null) {
+            retVal = newDigest();
+            DIGESTS.set(retVal);
+        }
+        retVal.reset();
+        return retVal;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static final class CacheFile implements Comparable<CacheFile> {
+
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+
+        private CacheFile(final Path path, final long lastModified, final long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(final CacheFile o) {
+            return Long.compare(lastModified, o.lastModified);
+        }
+    }
+
+}
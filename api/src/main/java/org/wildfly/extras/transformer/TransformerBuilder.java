@@ -19,6 +19,11 @@ import static java.lang.Thread.currentThread;
 
 import java.io.File;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 /**
  * Resource transformer builder instance can be manipulated only by thread that created it.
@@ -28,10 +33,31 @@ import java.util.ConcurrentModificationException;
  */
 public abstract class TransformerBuilder {
 
+    /**
+     * Environment variable defining reproducible builds timestamp in seconds since epoch.
+     */
+    static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+    /**
+     * Earliest time MS-DOS time format can express (1980-01-01T00:00:00Z).
+     */
+    static final long MIN_ENTRY_TIME = 315532800000L;
+    /**
+     * Entries modification time used in reproducible mode if {@link #SOURCE_DATE_EPOCH} is not defined (1980-02-01T00:00:00Z).
+     */
+    static final long DEFAULT_ENTRY_TIME = 318211200000L;
     private final Thread thread = currentThread();
     protected File configsDir;
     protected Boolean verbose;
     protected Boolean invert;
+    private Integer parallelism;
+    private Boolean transformNestedArchives;
+    private File cacheDir;
+    private Long cacheMaxSize;
+    private Boolean reproducible;
+    private Long entryTime;
+    private final Map<String, int[]> compressions = new LinkedHashMap<>();
+    private TransformerMetrics metrics;
+    private CompiledMapping mapping;
     private boolean built;
 
     protected TransformerBuilder() {
@@ -98,12 +124,227 @@ public abstract class TransformerBuilder {
         return this;
     }
 
+    /**
+     * Sets count of threads transforming archive entries concurrently.
+     * Archive entries are still read and written in their original order by dedicated threads
+     * so produced archives are identical to archives produced by single threaded transformation.
+     * Default value is <code>1</code> which means archive entries are processed sequentially by the calling thread.
+     *
+     * @param parallelism count of transforming threads
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter is less than <code>1</code>
+     */
+    public final TransformerBuilder setParallelism(final int parallelism) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.parallelism != null) throw new IllegalStateException("This method can be called only once");
+        if (parallelism < 1) throw new IllegalArgumentException("Parameter must be positive number");
+        // implementation
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Enables transformation of archives nested in transformed archives (e.g. <code>WEB-INF/lib/*.jar</code> in WAR
+     * or modules of EAR). Nested archives are recognized by <code>.jar</code>, <code>.war</code>, <code>.ear</code>
+     * and <code>.rar</code> extensions and they are transformed recursively as streams inside their parent archive
+     * without creating temporary files. Default value is <code>false</code> which means nested archives
+     * are treated as opaque resources.
+     *
+     * @param transformNestedArchives if nested archives should be transformed or not
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     */
+    public final TransformerBuilder setTransformNestedArchives(final boolean transformNestedArchives) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.transformNestedArchives != null) throw new IllegalStateException("This method can be called only once");
+        // implementation
+        this.transformNestedArchives = transformNestedArchives;
+        return this;
+    }
+
+    /**
+     * Enables persistent transformation cache stored in given directory. Cached transformation results
+     * are reused by subsequent transformations of identical resources with identical configuration
+     * and transformation engine, even across multiple processes sharing the same directory.
+     * Directory will be created if it doesn't exist.
+     *
+     * @param cacheDir cache directory
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     * or if method parameter equals to <code>empty string</code>
+     * or if provided file exists but it is not directory
+     */
+    public final TransformerBuilder setCacheDir(final String cacheDir) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.cacheDir != null) throw new IllegalStateException("This method can be called only once");
+        if (cacheDir == null) throw new IllegalArgumentException("Parameter cannot be null");
+        if ("".equals(cacheDir)) throw new IllegalArgumentException("Parameter cannot be empty string");
+        final File cacheDirFile = new File(cacheDir);
+        if (cacheDirFile.exists() && !cacheDirFile.isDirectory()) throw new IllegalArgumentException("Provided value '" + cacheDir + "' is not directory");
+        // implementation
+        this.cacheDir = cacheDirFile;
+        return this;
+    }
+
+    /**
+     * Sets transformation cache size limit. Least recently used cache entries are evicted once the limit is exceeded.
+     * Default value is {@link TransformationCache#DEFAULT_MAX_SIZE}. Has effect only if cache directory was set
+     * via {@link #setCacheDir(String)}.
+     *
+     * @param cacheMaxSize cache size limit in bytes
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter is less than <code>1</code>
+     */
+    public final TransformerBuilder setCacheMaxSize(final long cacheMaxSize) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.cacheMaxSize != null) throw new IllegalStateException("This method can be called only once");
+        if (cacheMaxSize < 1) throw new IllegalArgumentException("Parameter must be positive number");
+        // implementation
+        this.cacheMaxSize = cacheMaxSize;
+        return this;
+    }
+
+    /**
+     * Sets already loaded packages mapping. The same mapping instance can be passed to any number of builders
+     * so transformers created by them share both the mapping and its engine specific compiled forms
+     * instead of loading and compiling configuration files again. Cannot be combined with
+     * {@link #setConfigsDir(String)} nor {@link #setInvert(boolean)} as the mapping already defines both.
+     *
+     * @param mapping packages mapping
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     */
+    public final TransformerBuilder setMapping(final CompiledMapping mapping) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.mapping != null) throw new IllegalStateException("This method can be called only once");
+        if (mapping == null) throw new IllegalArgumentException("Parameter cannot be null");
+        // implementation
+        this.mapping = mapping;
+        return this;
+    }
+
+    /**
+     * Sets whether produced archives should be reproducible i.e. byte for byte identical for the same input
+     * regardless of when and where they were produced. In reproducible mode all archive entries have the same
+     * modification time stored in UTC. The time is either the one set via {@link #setEntryTime(long)} or the time
+     * defined by <code>SOURCE_DATE_EPOCH</code> environment variable (seconds since epoch) or 1980-02-01T00:00:00Z.
+     * Default value is <code>false</code> i.e. archive entries have current time in default time zone.
+     *
+     * @param reproducible whether produced archives should be reproducible
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     */
+    public final TransformerBuilder setReproducible(final boolean reproducible) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.reproducible != null) throw new IllegalStateException("This method can be called only once");
+        // implementation
+        this.reproducible = reproducible;
+        return this;
+    }
+
+    /**
+     * Sets modification time of all produced archive entries. Implies reproducible mode (see {@link #setReproducible(boolean)}).
+     *
+     * @param entryTime entries modification time in milliseconds since epoch
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter precedes 1980-01-01T00:00:00Z
+     */
+    public final TransformerBuilder setEntryTime(final long entryTime) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.entryTime != null) throw new IllegalStateException("This method can be called only once");
+        if (entryTime < MIN_ENTRY_TIME) throw new IllegalArgumentException("Parameter cannot precede 1980-01-01T00:00:00Z");
+        // implementation
+        this.entryTime = entryTime;
+        return this;
+    }
+
+    /**
+     * Sets compression of archive entries which names end with given suffix (case insensitive), e.g. <code>.png</code>.
+     * If multiple suffixes match entry name the longest one wins, empty suffix overrides settings of all remaining entries.
+     * By default all entries are deflated with {@link Deflater#DEFAULT_COMPRESSION} level. Settings apply to entries
+     * which data are written by transformer, entries copied from source archive keep their original compressed data.
+     * Entries which data are streamed (e.g. nested archives) cannot be stored as their size and checksum
+     * are not known in advance, these are deflated with {@link Deflater#NO_COMPRESSION} level instead.
+     * Once transformer parallelism is greater than <code>one</code> entries are compressed concurrently.
+     *
+     * @param entrySuffix entry name suffix
+     * @param method either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param level deflate compression level (<code>-1</code> - <code>9</code>), ignored for stored entries
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method with the same suffix have been already called
+     * @throws IllegalArgumentException if suffix is <code>null</code> or if method or level are not valid
+     */
+    public final TransformerBuilder setCompression(final String entrySuffix, final int method, final int level) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (entrySuffix == null) throw new IllegalArgumentException("Parameter cannot be null");
+        if (compressions.containsKey(entrySuffix.toLowerCase(Locale.ENGLISH))) throw new IllegalStateException("This method can be called only once per entry suffix");
+        if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) throw new IllegalArgumentException("Unsupported compression method: " + method);
+        if (method == ZipEntry.DEFLATED && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)) throw new IllegalArgumentException("Invalid compression level: " + level);
+        // implementation
+        compressions.put(entrySuffix.toLowerCase(Locale.ENGLISH), new int[] {method, method == ZipEntry.DEFLATED ? level : Deflater.NO_COMPRESSION});
+        return this;
+    }
+
+    /**
+     * Sets transformation metrics the transformer and its resource transformers report to. The same metrics instance
+     * can be passed to any number of builders to aggregate metrics of multiple transformers.
+     * Metrics are disabled by default.
+     *
+     * @param metrics transformation metrics (e.g. {@link DefaultTransformerMetrics})
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #build()} or this method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     */
+    public final TransformerBuilder setMetrics(final TransformerMetrics metrics) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (this.metrics != null) throw new IllegalStateException("This method can be called only once");
+        if (metrics == null) throw new IllegalArgumentException("Parameter cannot be null");
+        // implementation
+        this.metrics = metrics;
+        return this;
+    }
+
     /**
      * Creates new resource transformer and closes this builder instance.
      *
      * @return new resource transformer
      * @throws ConcurrentModificationException if this builder instance is used by multiple threads
      * @throws IllegalStateException if this method have been already called or
+     * if packages mapping was combined with configuration files directory or invert flag or
+     * if entry time was combined with disabled reproducible mode or
+     * if reproducible mode is enabled and <code>SOURCE_DATE_EPOCH</code> environment variable is not a number or
      * there was no packages mapping defined in configuration file or
      * if packages mapping count in configuration file surpasses value <code>65535</code>
      * @throws IllegalArgumentException if configuration file has invalid format or it contains identical package mapping
@@ -113,9 +354,39 @@ public abstract class TransformerBuilder {
         // preconditions
         if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
         if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (mapping != null && (configsDir != null || invert != null)) throw new IllegalStateException("Packages mapping cannot be combined with configs dir or invert flag");
+        if (entryTime != null && Boolean.FALSE.equals(reproducible)) throw new IllegalStateException("Entry time cannot be combined with disabled reproducible mode");
         built = true;
         // implementation
-        return buildInternal();
+        if (mapping != null) {
+            configsDir = mapping.getConfigsDir();
+            invert = mapping.isInvert();
+        }
+        final ArchiveTransformer retVal = buildInternal();
+        retVal.mapping = mapping;
+        retVal.parallelism = parallelism != null ? parallelism : 1;
+        retVal.transformNestedArchives = transformNestedArchives != null ? transformNestedArchives : false;
+        if (cacheDir != null) {
+            retVal.cache = new TransformationCache(cacheDir, cacheMaxSize != null ? cacheMaxSize : TransformationCache.DEFAULT_MAX_SIZE);
+        }
+        retVal.metrics = metrics;
+        retVal.compressor = new EntryCompressor(compressions, metrics);
+        if (entryTime != null) {
+            retVal.entryTime = entryTime;
+        } else if (Boolean.TRUE.equals(reproducible)) {
+            retVal.entryTime = getSourceDateEpoch();
+        }
+        return retVal;
+    }
+
+    private static long getSourceDateEpoch() {
+        final String value = System.getenv(SOURCE_DATE_EPOCH);
+        if (value == null || value.trim().isEmpty()) return DEFAULT_ENTRY_TIME;
+        try {
+            return Math.max(Long.parseLong(value.trim()) * 1000, MIN_ENTRY_TIME);
+        } catch (final NumberFormatException e) {
+            throw new IllegalStateException(SOURCE_DATE_EPOCH + " environment variable is not a number: " + value);
+        }
     }
 
     /**
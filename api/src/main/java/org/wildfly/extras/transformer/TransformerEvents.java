@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.File;
+
+/**
+ * Java Flight Recorder events emitted from transformation hot paths. Every event is opened by <code>begin*</code>
+ * method returning event handle and closed by corresponding <code>end*</code> method. The handle is <code>null</code>
+ * if the event is disabled and <code>end*</code> methods ignore <code>null</code> handles so events cost single branch
+ * when not recorded. Callers should compute expensive event arguments only for non-null handles.
+ * This is Java 8 implementation that never records anything. Multi-release archive contains Java 11 implementation
+ * committing <code>jdk.jfr</code> events.
+ */
+public final class TransformerEvents {
+
+    private TransformerEvents() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Opens archive transformation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginArchive() {
+        return null;
+    }
+
+    /**
+     * Commits archive transformation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param engine archive transformer
+     * @param source transformed archive or directory
+     * @param target produced archive or directory
+     * @param transformed whether transformations were applied
+     */
+    public static void endArchive(final Object event, final ArchiveTransformer engine, final File source, final File target,
+                                  final boolean transformed) {
+        // not recorded
+    }
+
+    /**
+     * Opens resource transformation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginResource() {
+        return null;
+    }
+
+    /**
+     * Commits resource transformation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param engine resource transformer
+     * @param oldResource transformed resource
+     * @param newResources transformation result or <code>null</code> if transformation failed
+     */
+    public static void endResource(final Object event, final ResourceTransformer engine, final ResourceTransformer.Resource oldResource,
+                                   final ResourceTransformer.Resource[] newResources) {
+        // not recorded
+    }
+
+    /**
+     * Opens transformation engine internal operation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginOperation() {
+        return null;
+    }
+
+    /**
+     * Commits transformation engine internal operation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param operation operation name
+     * @param className internal name of processed class
+     * @param bytes count of produced bytes
+     */
+    public static void endOperation(final Object event, final String operation, final String className, final int bytes) {
+        // not recorded
+    }
+
+}
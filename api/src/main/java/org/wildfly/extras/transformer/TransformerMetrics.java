@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+/**
+ * Transformation metrics SPI. Archive transformers report processed entries and phase timings,
+ * resource transformers of transformation engines report processed class files.
+ * Metrics are reported from hot paths by multiple threads concurrently so implementations
+ * must be thread safe and should avoid locking (see {@link DefaultTransformerMetrics}).
+ * Metrics instance is configured via {@link TransformerBuilder#setMetrics(TransformerMetrics)}.
+ */
+public interface TransformerMetrics {
+
+    /**
+     * Archive transformation phases.
+     */
+    enum Phase {
+        /**
+         * Reading compressed entry data from source archive.
+         */
+        READ,
+        /**
+         * Decompressing entry data. Includes reading of nested archive entries.
+         */
+        INFLATE,
+        /**
+         * Transforming resource by resource transformer.
+         */
+        TRANSFORM,
+        /**
+         * Compressing transformed entry data.
+         */
+        DEFLATE,
+        /**
+         * Writing entry to target archive. Includes compressing of nested archive entries and streamed entries.
+         */
+        WRITE
+    }
+
+    /**
+     * Reports archive entry processed by archive transformer.
+     *
+     * @param type entry type i.e. lower case entry name extension without leading dot or <code>empty string</code>
+     * @param bytesIn uncompressed source entry size
+     * @param bytesOut uncompressed size of all written entries replacing source entry
+     */
+    void entry(String type, long bytesIn, long bytesOut);
+
+    /**
+     * Reports class file processed by resource transformer.
+     *
+     * @param patched <code>true</code> if class file was modified, <code>false</code> if it was skipped
+     */
+    void classFile(boolean patched);
+
+    /**
+     * Reports duration of single phase execution.
+     *
+     * @param phase transformation phase
+     * @param nanos phase duration in nanoseconds
+     */
+    void phase(Phase phase, long nanos);
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Class loader transforming classes and resources of given jar archives lazily as they are being loaded.
+ * Only classes and resources that are actually requested are transformed so containers don't need
+ * to transform whole archives up front. Every jar entry is read and transformed at most once,
+ * transformed data are cached per class loader. Resources renamed by the transformation (e.g. classes
+ * of mapped packages) are available under their new names only. Parent class loader is consulted first.
+ * This class loader is parallel capable.
+ */
+public final class TransformingClassLoader extends ClassLoader implements Closeable {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String META_INF_SERVICES_PREFIX = "META-INF/services/";
+    private static final TransformedResource[] NOT_FOUND = new TransformedResource[0];
+    private final JarFile[] jars;
+    private final URL[] jarUrls;
+    private final ProtectionDomain[] domains;
+    private final CompiledMapping mapping;
+    /**
+     * Resource transformer of every thread. Engines documenting their resource transformers as thread safe
+     * hand the same instance to all threads (see {@link ArchiveTransformer#newResourceTransformer()}).
+     */
+    private final ThreadLocal<ResourceTransformer> transformers;
+    /**
+     * Transformed resources keyed by their (new) names, {@link #NOT_FOUND} represents missing resource.
+     */
+    private final ConcurrentMap<String, TransformedResource[]> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates class loader transforming given jar archives.
+     *
+     * @param transformer transformer providing transformation engine and its configuration
+     * @param jars jar archives to load classes and resources from
+     * @param parent parent class loader
+     * @throws IOException if some I/O error occurs
+     * @throws UnsupportedOperationException if transformation engine doesn't support transformation of individual resources
+     */
+    public TransformingClassLoader(final ArchiveTransformer transformer, final File[] jars, final ClassLoader parent) throws IOException {
+        super(parent);
+        if (transformer == null || jars == null) throw new IllegalArgumentException("Parameter cannot be null");
+        this.mapping = transformer.getMapping();
+        this.transformers = ThreadLocal.withInitial(() -> {
+            try {
+                return transformer.newResourceTransformer();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        this.transformers.set(transformer.newResourceTransformer()); // fail fast if engine is not supported
+        this.jars = new JarFile[jars.length];
+        this.jarUrls = new URL[jars.length];
+        this.domains = new ProtectionDomain[jars.length];
+        try {
+            for (int i = 0; i < jars.length; i++) {
+                if (jars[i] == null) throw new IllegalArgumentException("Jar archive cannot be null");
+                this.jars[i] = new JarFile(jars[i]);
+                this.jarUrls[i] = jars[i].toURI().toURL();
+                this.domains[i] = new ProtectionDomain(new CodeSource(jarUrls[i], (Certificate[]) null), null, this, null);
+            }
+        } catch (final IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        final TransformedResource[] resources;
+        try {
+            resources = getTransformedResources(name.replace('.', '/') + CLASS_SUFFIX);
+        } catch (final IOException | UncheckedIOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (resources.length == 0) throw new ClassNotFoundException(name);
+        final TransformedResource r = resources[0];
+        definePackage(name);
+        return defineClass(name, r.data, 0, r.data.length, domains[r.jarIndex]);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackage(final String className) {
+        final int lastDotIndex = className.lastIndexOf('.');
+        if (lastDotIndex == -1) return;
+        final String packageName = className.substring(0, lastDotIndex);
+        if (getPackage(packageName) != null) return;
+        try {
+            definePackage(packageName, null, null, null, null, null, null, null);
+        } catch (final IllegalArgumentException ignored) {
+            // package was defined by other thread concurrently
+        }
+    }
+
+    @Override
+    protected URL findResource(final String name) {
+        try {
+            final TransformedResource[] resources = getTransformedResources(name);
+            return resources.length == 0 ? null : resources[0].toURL(name);
+        } catch (final IOException | UncheckedIOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(final String name) throws IOException {
+        final TransformedResource[] resources;
+        try {
+            resources = getTransformedResources(name);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final List<URL> retVal = new ArrayList<>(resources.length);
+        for (final TransformedResource resource : resources) {
+            retVal.add(resource.toURL(name));
+        }
+        return Collections.enumeration(retVal);
+    }
+
+    /**
+     * Closes all jar archives. Classes and resources that were not loaded yet cannot be loaded after this class loader
+     * was closed.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (final JarFile jar : jars) {
+            if (jar == null) continue;
+            try {
+                jar.close();
+            } catch (final IOException e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        cache.clear();
+        if (failure != null) throw failure;
+    }
+
+    private TransformedResource[] getTransformedResources(final String name) throws IOException {
+        TransformedResource[] retVal = cache.get(name);
+        if (retVal == null) {
+            retVal = transformResources(name);
+            final TransformedResource[] previous = cache.putIfAbsent(name, retVal);
+            if (previous != null) retVal = previous;
+        }
+        return retVal;
+    }
+
+    /**
+     * Reads and transforms all jar entries that are available under given name after transformation.
+     */
+    private TransformedResource[] transformResources(final String name) throws IOException {
+        final ResourceTransformer transformer = transformers.get();
+        List<TransformedResource> retVal = null;
+        JarEntry entry;
+        byte[] data;
+        ResourceTransformer.Resource[] newResources;
+        for (final String oldName : getOriginalNames(name)) {
+            for (int i = 0; i < jars.length; i++) {
+                entry = jars[i].getJarEntry(oldName);
+                if (entry == null || entry.isDirectory()) continue;
+                data = readEntry(jars[i], entry);
+                newResources = transform(transformer, new ResourceTransformer.Resource(oldName, data));
+                if (newResources.length == 0) {
+                    if (!oldName.equals(name)) continue; // resource was not renamed to requested name
+                } else if (!name.equals(newResources[0].getName())) {
+                    continue; // resource is available under other name
+                } else {
+                    data = newResources[0].getData();
+                    for (int j = 1; j < newResources.length; j++) {
+                        addGeneratedResource(newResources[j], i);
+                    }
+                }
+                if (retVal == null) retVal = new ArrayList<>(1);
+                retVal.add(new TransformedResource(i, jarUrls[i], data));
+            }
+        }
+        return retVal == null ? NOT_FOUND : retVal.toArray(NOT_FOUND);
+    }
+
+    private void addGeneratedResource(final ResourceTransformer.Resource r, final int jarIndex) {
+        final TransformedResource[] resources = new TransformedResource[] {new TransformedResource(jarIndex, jarUrls[jarIndex], r.getData())};
+        if (cache.putIfAbsent(r.getName(), resources) == NOT_FOUND) {
+            cache.replace(r.getName(), NOT_FOUND, resources); // generated resource was requested before it was generated
+        }
+    }
+
+    /**
+     * Computes all possible names of given resource before transformation by reverting packages mapping.
+     */
+    private Set<String> getOriginalNames(final String name) {
+        final Set<String> retVal = new LinkedHashSet<>();
+        retVal.add(name);
+        addOriginalNames(retVal, name, mapping.getMappingWithSeps());
+        if (name.startsWith(META_INF_SERVICES_PREFIX)) {
+            addOriginalNames(retVal, name, mapping.getMappingWithDots());
+        }
+        return retVal;
+    }
+
+    private static void addOriginalNames(final Set<String> names, final String name, final Map<String, String> mapping) {
+        int startIndex;
+        for (final Map.Entry<String, String> entry : mapping.entrySet()) {
+            startIndex = name.indexOf(entry.getValue());
+            if (startIndex != -1) {
+                names.add(name.substring(0, startIndex) + entry.getKey() + name.substring(startIndex + entry.getValue().length()));
+            }
+        }
+    }
+
+    private static ResourceTransformer.Resource[] transform(final ResourceTransformer transformer, final ResourceTransformer.Resource r) {
+        final Object event = TransformerEvents.beginResource();
+        ResourceTransformer.Resource[] retVal = null;
+        try {
+            retVal = transformer.transform(r);
+            return retVal;
+        } finally {
+            TransformerEvents.endResource(event, transformer, r, retVal);
+        }
+    }
+
+    private static byte[] readEntry(final JarFile jar, final JarEntry entry) throws IOException {
+        try (InputStream in = jar.getInputStream(entry)) {
+            if (entry.getSize() > ArchiveTransformer.MAX_ARRAY_SIZE) {
+                throw new UnsupportedOperationException("Jar entry " + entry.getName() + " is too big to be loaded");
+            }
+            return ArchiveTransformer.readBytes(in, entry.getSize() >= 0 ? (int) entry.getSize() : ArchiveTransformer.MAX_ARRAY_SIZE);
+        }
+    }
+
+    /**
+     * Transformed resource data. It is also stream handler of resource URLs so resource content is served
+     * from memory.
+     */
+    private static final class TransformedResource extends URLStreamHandler {
+        private final int jarIndex;
+        private final URL jarUrl;
+        private final byte[] data;
+
+        private TransformedResource(final int jarIndex, final URL jarUrl, final byte[] data) {
+            this.jarIndex = jarIndex;
+            this.jarUrl = jarUrl;
+            this.data = data;
+        }
+
+        private URL toURL(final String name) {
+            try {
+                return new URL("jar", null, -1, jarUrl + "!/" + name, this);
+            } catch (final MalformedURLException e) {
+                throw new IllegalStateException(e); // should never happen
+            }
+        }
+
+        @Override
+        protected URLConnection openConnection(final URL u) {
+            return new URLConnection(u) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    connected = true;
+                    return new ByteArrayInputStream(data);
+                }
+
+                @Override
+                public int getContentLength() {
+                    return data.length;
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return data.length;
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * ZIP archive reader providing access to both compressed and uncompressed entries data.
+ * Entries are read from the <i>central directory</i> and returned in the same order as {@link java.util.zip.ZipFile} does.
+ * Can be used concurrently by multiple threads as instances of this class are thread safe.
+ */
+final class ZipArchiveReader implements Closeable {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_HEADER_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_HEADER_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ENCRYPTED_FLAG = 0x1;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+    private final Deque<Inflater> inflaters = new ArrayDeque<>();
+    private final TransformerMetrics metrics;
+
+    ZipArchiveReader(final File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Opens archive reporting {@link TransformerMetrics.Phase#READ} and {@link TransformerMetrics.Phase#INFLATE}
+     * phases of {@link #read(Entry)} method.
+     *
+     * @param file archive file
+     * @param metrics transformation metrics or <code>null</code>
+     * @throws IOException if some I/O error occurs
+     */
+    ZipArchiveReader(final File file, final TransformerMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets archive entries in central directory order.
+     *
+     * @return archive entries
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads and decompresses entry data.
+     *
+     * @param entry archive entry
+     * @return uncompressed entry data
+     * @throws IOException if some I/O error occurs
+     */
+    byte[] read(final Entry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + entry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+        final byte[] data = new byte[(int) entry.getSize()];
+        final long start = ArchiveTransformer.startPhase(metrics);
+        final long dataOffset = getDataOffset(entry);
+        if (entry.getMethod() == STORED) {
+            readFully(ByteBuffer.wrap(data), dataOffset);
+            ArchiveTransformer.endPhase(metrics, TransformerMetrics.Phase.READ, start);
+            return data;
+        }
+        final Inflater inflater = getInflater();
+        long readNanos = 0;
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, entry.getCompressedSize())));
+            long position = dataOffset;
+            final long limit = dataOffset + entry.getCompressedSize();
+            int offset = 0;
+            while (offset < data.length) {
+                if (inflater.needsInput()) {
+                    if (position >= limit) {
+                        throw new EOFException("Unexpected end of ZIP entry " + entry.getName());
+                    }
+                    buffer.clear();
+                    if (limit - position < buffer.capacity()) {
+                        buffer.limit((int) (limit - position));
+                    }
+                    if (metrics != null) {
+                        final long readStart = System.nanoTime();
+                        readFully(buffer, position);
+                        readNanos += System.nanoTime() - readStart;
+                    } else {
+                        readFully(buffer, position);
+                    }
+                    position += buffer.limit();
+                    inflater.setInput(buffer.array(), 0, buffer.limit());
+                }
+                offset += inflater.inflate(data, offset, data.length - offset);
+                if (inflater.finished() && offset < data.length) {
+                    throw new ZipException("Invalid ZIP entry " + entry.getName() + " size");
+                }
+            }
+            if (metrics != null) {
+                metrics.phase(TransformerMetrics.Phase.READ, readNanos);
+                metrics.phase(TransformerMetrics.Phase.INFLATE, System.nanoTime() - start - readNanos);
+            }
+            return data;
+        } catch (final DataFormatException e) {
+            throw new ZipException("Invalid ZIP entry " + entry.getName() + " data: " + e.getMessage());
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Opens stream providing uncompressed entry data. Unlike {@link #read(Entry)} this method
+     * doesn't load whole entry data into memory.
+     *
+     * @param entry archive entry
+     * @return uncompressed entry data stream
+     * @throws IOException if some I/O error occurs
+     */
+    InputStream openStream(final Entry entry) throws IOException {
+        final InputStream in = new EntryInputStream(getDataOffset(entry), entry.getCompressedSize());
+        if (entry.getMethod() == STORED) {
+            return in;
+        }
+        return new InflaterInputStream(in, getInflater(), BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                releaseInflater(inf);
+            }
+        };
+    }
+
+    /**
+     * Transfers compressed entry data to the target channel.
+     *
+     * @param entry archive entry
+     * @param target channel to write to
+     * @throws IOException if some I/O error occurs
+     */
+    void transferRawData(final Entry entry, final WritableByteChannel target) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        long transferred;
+        while (remaining > 0) {
+            transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of ZIP entry " + entry.getName());
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (inflaters) {
+            for (final Inflater inflater : inflaters) {
+                inflater.end();
+            }
+            inflaters.clear();
+        }
+        channel.close();
+    }
+
+    private Inflater getInflater() {
+        synchronized (inflaters) {
+            final Inflater retVal = inflaters.poll();
+            return retVal != null ? retVal : new Inflater(true);
+        }
+    }
+
+    private void releaseInflater(final Inflater inflater) {
+        inflater.reset();
+        synchronized (inflaters) {
+            inflaters.push(inflater);
+        }
+    }
+
+    private long getDataOffset(final Entry entry) throws IOException {
+        if ((entry.getFlag() & ENCRYPTED_FLAG) != 0) {
+            throw new ZipException("Encrypted ZIP entry " + entry.getName() + " not supported");
+        }
+        if (entry.getMethod() != STORED && entry.getMethod() != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.getMethod() + " of ZIP entry " + entry.getName());
+        }
+        final ByteBuffer header = newBuffer(LOCAL_HEADER_SIZE);
+        readFully(header, entry.getLocalHeaderOffset());
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of ZIP entry " + entry.getName());
+        }
+        return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < END_HEADER_SIZE) {
+            throw new ZipException("Not a ZIP archive");
+        }
+        // locate end of central directory record
+        final int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+        final ByteBuffer tail = newBuffer(tailSize);
+        readFully(tail, fileSize - tailSize);
+        int endHeaderIndex = -1;
+        for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+                endHeaderIndex = i;
+                break;
+            }
+        }
+        if (endHeaderIndex == -1) {
+            throw new ZipException("End of central directory record not found");
+        }
+        long entriesCount = tail.getShort(endHeaderIndex + 10) & 0xFFFF;
+        long centralDirectorySize = tail.getInt(endHeaderIndex + 12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = tail.getInt(endHeaderIndex + 16) & ZIP64_MAGIC;
+        // locate ZIP64 end of central directory record if present
+        final long endHeaderOffset = fileSize - tailSize + endHeaderIndex;
+        if (endHeaderOffset >= ZIP64_LOCATOR_SIZE) {
+            final ByteBuffer locator = newBuffer(ZIP64_LOCATOR_SIZE);
+            readFully(locator, endHeaderOffset - ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                final ByteBuffer zip64EndHeader = newBuffer(ZIP64_END_HEADER_SIZE);
+                readFully(zip64EndHeader, locator.getLong(8));
+                if (zip64EndHeader.getInt(0) != ZIP64_END_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory record");
+                }
+                entriesCount = zip64EndHeader.getLong(32);
+                centralDirectorySize = zip64EndHeader.getLong(40);
+                centralDirectoryOffset = zip64EndHeader.getLong(48);
+            }
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset + centralDirectorySize > fileSize) {
+            throw new ZipException("Invalid central directory");
+        }
+        // read central directory
+        final ByteBuffer cd = newBuffer((int) centralDirectorySize);
+        readFully(cd, centralDirectoryOffset);
+        final List<Entry> retVal = new ArrayList<>((int) Math.min(entriesCount, Integer.MAX_VALUE));
+        int position = 0;
+        int nameLength, extraLength, commentLength;
+        long size, compressedSize, localHeaderOffset;
+        byte[] nameBytes;
+        while (position + CENTRAL_HEADER_SIZE <= centralDirectorySize) {
+            if (cd.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            nameLength = cd.getShort(position + 28) & 0xFFFF;
+            extraLength = cd.getShort(position + 30) & 0xFFFF;
+            commentLength = cd.getShort(position + 32) & 0xFFFF;
+            compressedSize = cd.getInt(position + 20) & ZIP64_MAGIC;
+            size = cd.getInt(position + 24) & ZIP64_MAGIC;
+            localHeaderOffset = cd.getInt(position + 42) & ZIP64_MAGIC;
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                // values are stored in ZIP64 extended information extra field
+                int extraPosition = position + CENTRAL_HEADER_SIZE + nameLength;
+                final int extraLimit = extraPosition + extraLength;
+                int id, dataSize, dataPosition;
+                while (extraPosition + 4 <= extraLimit) {
+                    id = cd.getShort(extraPosition) & 0xFFFF;
+                    dataSize = cd.getShort(extraPosition + 2) & 0xFFFF;
+                    if (id == ZIP64_EXTRA_ID) {
+                        dataPosition = extraPosition + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = cd.getLong(dataPosition);
+                            dataPosition += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = cd.getLong(dataPosition);
+                            dataPosition += 8;
+                        }
+                        if (localHeaderOffset == ZIP64_MAGIC) {
+                            localHeaderOffset = cd.getLong(dataPosition);
+                        }
+                        break;
+                    }
+                    extraPosition += 4 + dataSize;
+                }
+            }
+            nameBytes = new byte[nameLength];
+            cd.position(position + CENTRAL_HEADER_SIZE);
+            cd.get(nameBytes);
+            retVal.add(new Entry(new String(nameBytes, UTF_8), cd.getShort(position + 8) & 0xFFFF, cd.getShort(position + 10) & 0xFFFF,
+                    cd.getInt(position + 12), cd.getInt(position + 16) & ZIP64_MAGIC, compressedSize, size, localHeaderOffset));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return retVal;
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+        int read;
+        while (buffer.hasRemaining()) {
+            read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of ZIP archive");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static ByteBuffer newBuffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Stream reading raw entry data directly from the archive channel.
+     */
+    private final class EntryInputStream extends InputStream {
+
+        private long position;
+        private final long limit;
+
+        private EntryInputStream(final long position, final long size) {
+            this.position = position;
+            this.limit = position + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) return 0;
+            if (position >= limit) return -1;
+            final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, limit - position)), position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of ZIP archive");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(limit - position, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * ZIP archive entry as defined in the central directory.
+     */
+    static final class Entry {
+
+        private final String name;
+        private final int flag;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(final String name, final int flag, final int method, final int dosTime, final long crc,
+              final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.flag = flag;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getFlag() {
+            return flag;
+        }
+
+        int getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets last modification time in MS-DOS format (time in lower and date in upper 16 bits).
+         *
+         * @return MS-DOS date and time
+         */
+        int getDosTime() {
+            return dosTime;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        long getCompressedSize() {
+            return compressedSize;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.wildfly.extras.transformer.ZipArchiveReader.CENTRAL_HEADER_SIGNATURE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.CENTRAL_HEADER_SIZE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.DEFLATED;
+import static org.wildfly.extras.transformer.ZipArchiveReader.END_HEADER_SIGNATURE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.END_HEADER_SIZE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.LOCAL_HEADER_SIGNATURE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.LOCAL_HEADER_SIZE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_END_HEADER_SIGNATURE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_EXTRA_ID;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_END_HEADER_SIZE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_LOCATOR_SIGNATURE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_LOCATOR_SIZE;
+import static org.wildfly.extras.transformer.ZipArchiveReader.ZIP64_MAGIC;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * ZIP archive writer. Besides writing new entries it is able to copy already compressed entries
+ * from {@link ZipArchiveReader} without decompressing and compressing their data again.
+ * ZIP64 extensions are used only for entries, offsets and archives exceeding classic ZIP format limits.
+ * Cannot be used concurrently by multiple threads as instances of this class are not thread safe.
+ */
+final class ZipArchiveWriter implements Closeable {
+
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int DATA_DESCRIPTOR_SIZE = 16;
+    private static final int ZIP64_DATA_DESCRIPTOR_SIZE = 24;
+    private static final int ZIP64_LOCAL_EXTRA_SIZE = 20;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int BUFFER_SIZE = 128 * 1024;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralHeader> centralHeaders = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+    private long position;
+    private EntryOutputStream entryStream;
+    private boolean closed;
+
+    ZipArchiveWriter(final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes new entry which data were already compressed (see {@link EntryCompressor}).
+     * Entries can be compressed by other threads in advance so this method only appends them to the archive.
+     *
+     * @param name entry name
+     * @param entry compressed entry data
+     * @param dosTime entry last modification time in MS-DOS format (see {@link #toDosTime(long, ZoneId)})
+     * @throws IOException if some I/O error occurs
+     */
+    void write(final String name, final EntryCompressor.CompressedEntry entry, final int dosTime) throws IOException {
+        checkNoOpenEntry();
+        final CentralHeader header = new CentralHeader(name, UTF8_FLAG, entry.method, dosTime, entry.crc, entry.length, entry.size, position);
+        writeLocalHeader(header);
+        write(entry.data, 0, entry.length);
+    }
+
+    /**
+     * Copies already compressed entry data from another archive.
+     *
+     * @param name entry name (can differ from source entry name)
+     * @param reader source archive
+     * @param entry source archive entry
+     * @param dosTime entry last modification time in MS-DOS format (see {@link #toDosTime(long, ZoneId)})
+     * @throws IOException if some I/O error occurs
+     */
+    void copy(final String name, final ZipArchiveReader reader, final ZipArchiveReader.Entry entry, final int dosTime) throws IOException {
+        checkNoOpenEntry();
+        final CentralHeader header = new CentralHeader(name, UTF8_FLAG, entry.getMethod(), dosTime, entry.getCrc(), entry.getCompressedSize(), entry.getSize(), position);
+        writeLocalHeader(header);
+        flushBuffer();
+        reader.transferRawData(entry, channel);
+        position += entry.getCompressedSize();
+    }
+
+    /**
+     * Opens new entry which data are compressed as they are written to the returned stream.
+     * Entry sizes and checksum are written in the data descriptor following entry data
+     * so entry data don't have to be held in memory. No other entry can be written until returned stream is closed.
+     *
+     * @param name entry name
+     * @param level deflate compression level
+     * @param dosTime entry last modification time in MS-DOS format (see {@link #toDosTime(long, ZoneId)})
+     * @return stream to write uncompressed entry data to
+     * @throws IOException if some I/O error occurs
+     */
+    OutputStream openEntry(final String name, final int level, final int dosTime) throws IOException {
+        checkNoOpenEntry();
+        final CentralHeader header = new CentralHeader(name, UTF8_FLAG | DATA_DESCRIPTOR_FLAG, DEFLATED, dosTime, 0, 0, 0, position);
+        writeLocalHeader(header);
+        crc.reset();
+        deflater.reset();
+        deflater.setLevel(level);
+        return entryStream = new EntryOutputStream(header);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            writeCentralDirectory();
+            flushBuffer();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    private void writeLocalHeader(final CentralHeader header) throws IOException {
+        checkLimits(header);
+        centralHeaders.add(header);
+        // sizes of entries with data descriptor are not known yet, such entries never have ZIP64 local header
+        final boolean zip64 = header.hasZip64Sizes();
+        final int extraLength = zip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0;
+        ensureCapacity(LOCAL_HEADER_SIZE + header.name.length + extraLength);
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) (zip64 ? VERSION_ZIP64 : header.version()));
+        buffer.putShort((short) header.flag);
+        buffer.putShort((short) header.method);
+        buffer.putInt(header.dosTime);
+        buffer.putInt((int) header.crc);
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : header.compressedSize));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : header.size));
+        buffer.putShort((short) header.name.length);
+        buffer.putShort((short) extraLength);
+        buffer.put(header.name);
+        if (zip64) {
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) (ZIP64_LOCAL_EXTRA_SIZE - 4));
+            buffer.putLong(header.size);
+            buffer.putLong(header.compressedSize);
+        }
+        position += LOCAL_HEADER_SIZE + header.name.length + extraLength;
+    }
+
+    private void writeDataDescriptor(final CentralHeader header) throws IOException {
+        // the same way java.util.zip does, sizes are 8 bytes long only if they don't fit into 4 bytes
+        final boolean zip64 = header.hasZip64Sizes();
+        ensureCapacity(ZIP64_DATA_DESCRIPTOR_SIZE);
+        buffer.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        buffer.putInt((int) header.crc);
+        if (zip64) {
+            buffer.putLong(header.compressedSize);
+            buffer.putLong(header.size);
+            position += ZIP64_DATA_DESCRIPTOR_SIZE;
+        } else {
+            buffer.putInt((int) header.compressedSize);
+            buffer.putInt((int) header.size);
+            position += DATA_DESCRIPTOR_SIZE;
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long centralDirectoryOffset = position;
+        boolean zip64Size, zip64CompressedSize, zip64Offset;
+        int extraLength;
+        for (final CentralHeader header : centralHeaders) {
+            zip64Size = header.size >= ZIP64_MAGIC;
+            zip64CompressedSize = header.compressedSize >= ZIP64_MAGIC;
+            zip64Offset = header.localHeaderOffset >= ZIP64_MAGIC;
+            extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+            if (extraLength > 0) {
+                extraLength += 4;
+            }
+            ensureCapacity(CENTRAL_HEADER_SIZE + header.name.length + extraLength);
+            buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+            buffer.putShort((short) (extraLength > 0 ? VERSION_ZIP64 : header.version()));
+            buffer.putShort((short) (extraLength > 0 ? VERSION_ZIP64 : header.version()));
+            buffer.putShort((short) header.flag);
+            buffer.putShort((short) header.method);
+            buffer.putInt(header.dosTime);
+            buffer.putInt((int) header.crc);
+            buffer.putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : header.compressedSize));
+            buffer.putInt((int) (zip64Size ? ZIP64_MAGIC : header.size));
+            buffer.putShort((short) header.name.length);
+            buffer.putShort((short) extraLength);
+            buffer.putShort((short) 0); // comment length
+            buffer.putShort((short) 0); // disk number start
+            buffer.putShort((short) 0); // internal file attributes
+            buffer.putInt(0); // external file attributes
+            buffer.putInt((int) (zip64Offset ? ZIP64_MAGIC : header.localHeaderOffset));
+            buffer.put(header.name);
+            if (extraLength > 0) {
+                // ZIP64 extended information extra field contains only values that don't fit into the header
+                buffer.putShort((short) ZIP64_EXTRA_ID);
+                buffer.putShort((short) (extraLength - 4));
+                if (zip64Size) buffer.putLong(header.size);
+                if (zip64CompressedSize) buffer.putLong(header.compressedSize);
+                if (zip64Offset) buffer.putLong(header.localHeaderOffset);
+            }
+            position += CENTRAL_HEADER_SIZE + header.name.length + extraLength;
+        }
+        final long centralDirectorySize = position - centralDirectoryOffset;
+        final boolean zip64 = centralHeaders.size() >= MAX_ENTRIES || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            // too many entries or too big archive, write ZIP64 end of central directory record and its locator
+            final long zip64EndHeaderOffset = position;
+            ensureCapacity(ZIP64_END_HEADER_SIZE + ZIP64_LOCATOR_SIZE);
+            buffer.putInt(ZIP64_END_HEADER_SIGNATURE);
+            buffer.putLong(ZIP64_END_HEADER_SIZE - 12); // size of remaining record
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0); // number of this disk
+            buffer.putInt(0); // disk where central directory starts
+            buffer.putLong(centralHeaders.size());
+            buffer.putLong(centralHeaders.size());
+            buffer.putLong(centralDirectorySize);
+            buffer.putLong(centralDirectoryOffset);
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0); // disk where ZIP64 end of central directory record starts
+            buffer.putLong(zip64EndHeaderOffset);
+            buffer.putInt(1); // total number of disks
+            position += ZIP64_END_HEADER_SIZE + ZIP64_LOCATOR_SIZE;
+        }
+        ensureCapacity(END_HEADER_SIZE);
+        buffer.putInt(END_HEADER_SIGNATURE);
+        buffer.putShort((short) 0); // number of this disk
+        buffer.putShort((short) 0); // disk where central directory starts
+        buffer.putShort((short) Math.min(centralHeaders.size(), MAX_ENTRIES));
+        buffer.putShort((short) Math.min(centralHeaders.size(), MAX_ENTRIES));
+        buffer.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+        buffer.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        buffer.putShort((short) 0); // comment length
+        position += END_HEADER_SIZE;
+    }
+
+    private void checkNoOpenEntry() {
+        if (entryStream != null) {
+            throw new IllegalStateException("Previous ZIP entry have not been closed");
+        }
+    }
+
+    private static void checkLimits(final CentralHeader header) throws ZipException {
+        if (header.name.length > 0xFFFF) {
+            throw new ZipException("ZIP entry name too long: " + new String(header.name, UTF_8));
+        }
+    }
+
+    private void write(final byte[] data, int offset, int length) throws IOException {
+        position += length;
+        int chunk;
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            chunk = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensureCapacity(final int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Converts Java time to MS-DOS date and time (time in lower and date in upper 16 bits).
+     * MS-DOS time has no time zone so the same Java time is converted differently in different time zones.
+     *
+     * @param time Java time
+     * @param zone time zone MS-DOS time is expressed in
+     * @return MS-DOS time
+     */
+    static int toDosTime(final long time, final ZoneId zone) {
+        final LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone);
+        if (ldt.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (ldt.getYear() - 1980) << 25 | ldt.getMonthValue() << 21 | ldt.getDayOfMonth() << 16
+                | ldt.getHour() << 11 | ldt.getMinute() << 5 | ldt.getSecond() >> 1;
+    }
+
+    /**
+     * Stream compressing written data directly to the archive.
+     */
+    private final class EntryOutputStream extends OutputStream {
+
+        private final CentralHeader header;
+        private final byte[] singleByte = new byte[1];
+        private long size;
+
+        private EntryOutputStream(final CentralHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            singleByte[0] = (byte) b;
+            write(singleByte, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (entryStream != this) throw new IOException("Stream closed");
+            if (len == 0) return;
+            crc.update(b, off, len);
+            size += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (entryStream != this) return;
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            header.crc = crc.getValue();
+            header.compressedSize = deflater.getBytesWritten();
+            header.size = size;
+            entryStream = null;
+            writeDataDescriptor(header);
+        }
+
+        private void deflate() throws IOException {
+            final int compressedSize = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+            if (compressedSize > 0) {
+                ZipArchiveWriter.this.write(deflateBuffer, 0, compressedSize);
+            }
+        }
+    }
+
+    private static final class CentralHeader {
+
+        private final byte[] name;
+        private final int flag;
+        private final int method;
+        private final int dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private final long localHeaderOffset;
+
+        private CentralHeader(final String name, final int flag, final int method, final int dosTime, final long crc,
+                              final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name.getBytes(UTF_8);
+            this.flag = flag;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        private int version() {
+            return method == DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+        }
+
+        private boolean hasZip64Sizes() {
+            return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted from transformation hot paths. Every event is opened by <code>begin*</code>
+ * method returning event handle and closed by corresponding <code>end*</code> method. The handle is <code>null</code>
+ * if the event is disabled and <code>end*</code> methods ignore <code>null</code> handles so events cost single branch
+ * when not recorded. Callers should compute expensive event arguments only for non-null handles.
+ * This is Java 11 implementation committing <code>jdk.jfr</code> events.
+ */
+public final class TransformerEvents {
+
+    private static final String CATEGORY = "WildFly Transformer";
+    /**
+     * Probes are never committed. Enabled state of JFR event type is static so it can be queried
+     * on shared instance without allocation.
+     */
+    private static final ArchiveEvent ARCHIVE_PROBE = new ArchiveEvent();
+    private static final ResourceEvent RESOURCE_PROBE = new ResourceEvent();
+    private static final OperationEvent OPERATION_PROBE = new OperationEvent();
+
+    private TransformerEvents() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Opens archive transformation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginArchive() {
+        if (!ARCHIVE_PROBE.isEnabled()) return null;
+        final ArchiveEvent event = new ArchiveEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits archive transformation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param engine archive transformer
+     * @param source transformed archive or directory
+     * @param target produced archive or directory
+     * @param transformed whether transformations were applied
+     */
+    public static void endArchive(final Object event, final ArchiveTransformer engine, final File source, final File target,
+                                  final boolean transformed) {
+        if (event == null) return;
+        final ArchiveEvent archiveEvent = (ArchiveEvent) event;
+        archiveEvent.end();
+        if (archiveEvent.shouldCommit()) {
+            archiveEvent.source = source.getPath();
+            archiveEvent.target = target.getPath();
+            archiveEvent.engine = engine.getClass().getName();
+            archiveEvent.transformed = transformed;
+            archiveEvent.commit();
+        }
+    }
+
+    /**
+     * Opens resource transformation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginResource() {
+        if (!RESOURCE_PROBE.isEnabled()) return null;
+        final ResourceEvent event = new ResourceEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits resource transformation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param engine resource transformer
+     * @param oldResource transformed resource
+     * @param newResources transformation result or <code>null</code> if transformation failed
+     */
+    public static void endResource(final Object event, final ResourceTransformer engine, final ResourceTransformer.Resource oldResource,
+                                   final ResourceTransformer.Resource[] newResources) {
+        if (event == null) return;
+        final ResourceEvent resourceEvent = (ResourceEvent) event;
+        resourceEvent.end();
+        if (resourceEvent.shouldCommit()) {
+            resourceEvent.name = oldResource.getName();
+            resourceEvent.engine = engine.getClass().getName();
+            resourceEvent.bytesIn = oldResource.getData().length;
+            resourceEvent.changed = newResources != null && newResources.length != 0;
+            resourceEvent.bytesOut = resourceEvent.changed ? newResources[0].getData().length : resourceEvent.bytesIn;
+            resourceEvent.generatedResources = resourceEvent.changed ? newResources.length - 1 : 0;
+            resourceEvent.commit();
+        }
+    }
+
+    /**
+     * Opens transformation engine internal operation event.
+     *
+     * @return event handle or <code>null</code> if event is not recorded
+     */
+    public static Object beginOperation() {
+        if (!OPERATION_PROBE.isEnabled()) return null;
+        final OperationEvent event = new OperationEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits transformation engine internal operation event.
+     *
+     * @param event event handle (can be <code>null</code>)
+     * @param operation operation name
+     * @param className internal name of processed class
+     * @param bytes count of produced bytes
+     */
+    public static void endOperation(final Object event, final String operation, final String className, final int bytes) {
+        if (event == null) return;
+        final OperationEvent operationEvent = (OperationEvent) event;
+        operationEvent.end();
+        if (operationEvent.shouldCommit()) {
+            operationEvent.operation = operation;
+            operationEvent.className = className;
+            operationEvent.bytes = bytes;
+            operationEvent.commit();
+        }
+    }
+
+    @Name("org.wildfly.extras.transformer.ArchiveTransformation")
+    @Label("Archive Transformation")
+    @Description("Transformation of archive or exploded archive directory")
+    @Category(CATEGORY)
+    private static final class ArchiveEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Target")
+        String target;
+        @Label("Engine")
+        String engine;
+        @Label("Transformed")
+        boolean transformed;
+    }
+
+    @Name("org.wildfly.extras.transformer.ResourceTransformation")
+    @Label("Resource Transformation")
+    @Description("Transformation of single resource by transformation engine")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    private static final class ResourceEvent extends Event {
+        @Label("Resource Name")
+        String name;
+        @Label("Engine")
+        String engine;
+        @Label("Bytes In")
+        @DataAmount
+        int bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        int bytesOut;
+        @Label("Changed")
+        boolean changed;
+        @Label("Generated Resources")
+        int generatedResources;
+    }
+
+    @Name("org.wildfly.extras.transformer.EngineOperation")
+    @Label("Engine Operation")
+    @Description("Transformation engine internal operation e.g. class patching or utility class generation")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    private static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Class Name")
+        String className;
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+}
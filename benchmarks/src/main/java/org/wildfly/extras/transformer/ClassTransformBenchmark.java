@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.extras.transformer.benchmarks.ClassShape;
+import org.wildfly.extras.transformer.benchmarks.Engine;
+
+/**
+ * Measures single class file transformation through {@link ResourceTransformer#transform(ResourceTransformer.Resource)}.
+ * Lives in the api package because resource transformers are not part of public API.
+ * Eclipse engine doesn't provide resource transformer so it is covered by archive benchmarks only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassTransformBenchmark {
+
+    @Param({"NODEPS", "ASM"})
+    public Engine engine;
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "UNRELATED"})
+    public ClassShape shape;
+
+    private ResourceTransformer transformer;
+    private ResourceTransformer.Resource resource;
+
+    @Setup
+    public void setup() throws IOException {
+        transformer = engine.newTransformer(1).newResourceTransformer();
+        resource = new ResourceTransformer.Resource("benchmark/Generated.class", shape.generate("benchmark/Generated"));
+    }
+
+    @Benchmark
+    public ResourceTransformer.Resource[] transform() {
+        return transformer.transform(resource);
+    }
+
+}
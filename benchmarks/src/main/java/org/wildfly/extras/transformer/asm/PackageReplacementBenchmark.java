@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.asm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.extras.transformer.CompiledMapping;
+import org.wildfly.extras.transformer.benchmarks.Corpus;
+
+/**
+ * Measures ASM engine <code>replaceJavaXwithJakarta</code> method applied to descriptors, signatures and
+ * string constants. The method is private so it is called through method handle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackageReplacementBenchmark {
+
+    private static final int CORPUS_SIZE = 256;
+
+    @Param({"0", "10", "50"})
+    public int hitPercentage;
+
+    private ResourceTransformerImpl transformer;
+    private MethodHandle replace;
+    private String[] corpus;
+
+    @Setup
+    public void setup() throws Exception {
+        transformer = new ResourceTransformerImpl(CompiledMapping.load(null, false), false);
+        final Method method = ResourceTransformerImpl.class.getDeclaredMethod("replaceJavaXwithJakarta", String.class);
+        method.setAccessible(true);
+        replace = MethodHandles.lookup().unreflect(method);
+        corpus = Corpus.strings(CORPUS_SIZE, hitPercentage);
+    }
+
+    @Benchmark
+    public int replaceJavaXwithJakarta() throws Throwable {
+        int retVal = 0;
+        for (final String s : corpus) {
+            retVal += ((String) replace.invokeExact(transformer, s)).length();
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.extras.transformer.ArchiveTransformer;
+
+/**
+ * Measures whole archive transformation including archive reading, entries inflating and deflating.
+ * The archive mixes class files of all {@link ClassShape shapes}, text descriptors and incompressible stored data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveTransformBenchmark {
+
+    private static final String DESCRIPTOR = "<web-app><servlet><servlet-class>javax.servlet.http.HttpServlet</servlet-class></servlet></web-app>\n";
+
+    @Param({"NODEPS", "ASM", "ECLIPSE"})
+    public Engine engine;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private ArchiveTransformer transformer;
+    private File inJar;
+    private File outJar;
+
+    @Setup
+    public void setup() throws IOException {
+        transformer = engine.newTransformer(parallelism);
+        inJar = File.createTempFile("benchmark-in", ".jar");
+        outJar = File.createTempFile("benchmark-out", ".jar");
+        writeArchive(inJar);
+    }
+
+    @TearDown
+    public void tearDown() {
+        inJar.delete();
+        outJar.delete();
+    }
+
+    @Benchmark
+    public boolean transform() throws IOException {
+        return transformer.transform(inJar, outJar);
+    }
+
+    private static void writeArchive(final File file) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            writeClasses(zos, ClassShape.SMALL, 400);
+            writeClasses(zos, ClassShape.MEDIUM, 100);
+            writeClasses(zos, ClassShape.LARGE, 5);
+            writeClasses(zos, ClassShape.UNRELATED, 100);
+            final StringBuilder descriptor = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                descriptor.append(DESCRIPTOR);
+            }
+            for (int i = 0; i < 20; i++) {
+                zos.putNextEntry(new ZipEntry("META-INF/descriptor" + i + ".xml"));
+                zos.write(descriptor.toString().getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+            final byte[] blob = new byte[4 * 1024 * 1024];
+            new Random(0).nextBytes(blob);
+            final CRC32 crc = new CRC32();
+            crc.update(blob);
+            final ZipEntry blobEntry = new ZipEntry("data/blob.bin");
+            blobEntry.setMethod(ZipEntry.STORED);
+            blobEntry.setSize(blob.length);
+            blobEntry.setCrc(crc.getValue());
+            zos.putNextEntry(blobEntry);
+            zos.write(blob);
+            zos.closeEntry();
+        }
+    }
+
+    private static void writeClasses(final ZipOutputStream zos, final ClassShape shape, final int count) throws IOException {
+        String className;
+        for (int i = 0; i < count; i++) {
+            className = "benchmark/" + shape.name().toLowerCase(Locale.ENGLISH) + "/Generated" + i;
+            zos.putNextEntry(new ZipEntry(className + ".class"));
+            zos.write(shape.generate(className));
+            zos.closeEntry();
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.benchmarks;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Synthetic class file shapes used to measure per-class transformation cost across class sizes.
+ * Every generated method contributes its own constant pool entries so class size grows linearly
+ * with methods count (roughly <code>0.6 kB</code>, <code>6 kB</code> and <code>100 kB</code>).
+ */
+public enum ClassShape {
+
+    SMALL(4, true),
+    MEDIUM(64, true),
+    LARGE(1024, true),
+    /**
+     * Medium sized class without any reference to mapped packages.
+     */
+    UNRELATED(64, false);
+
+    private final int methods;
+    private final boolean javax;
+
+    ClassShape(final int methods, final boolean javax) {
+        this.methods = methods;
+        this.javax = javax;
+    }
+
+    /**
+     * Generates class file of this shape.
+     *
+     * @param className internal name of generated class
+     * @return class file bytes
+     */
+    public byte[] generate(final String className) {
+        final String superName = javax ? "javax/servlet/http/HttpServlet" : "java/lang/Object";
+        final String paramType = javax ? "javax/servlet/ServletRequest" : "java/lang/CharSequence";
+        final String constantPrefix = javax ? "javax.servlet.attribute" : "java.lang.attribute";
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, superName, null);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "method" + i, "(L" + paramType + ";)Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitLdcInsn(constantPrefix + i);
+            mv.visitInsn(POP);
+            mv.visitVarInsn(ALOAD, 1);
+            if (javax) {
+                mv.visitLdcInsn("name" + i);
+                mv.visitMethodInsn(INVOKEINTERFACE, paramType, "getParameter", "(Ljava/lang/String;)Ljava/lang/String;", true);
+            } else {
+                mv.visitMethodInsn(INVOKEINTERFACE, paramType, "toString", "()Ljava/lang/String;", true);
+            }
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH results files in CSV format (see {@link BenchmarkRunner}), typically results of the target branch
+ * and results of the pull request being reviewed measured on the same machine. Primary scores and normalized allocation rates
+ * (<code>gc.alloc.rate.norm</code>) are compared. Exits with status <code>1</code> if some benchmark
+ * regressed by more than given threshold percentage (default <code>10</code>).
+ * <p>
+ * Usage: <code>CompareResults baseline.csv current.csv [threshold]</code>
+ */
+public final class CompareResults {
+
+    private static final String ALLOCATION_SUFFIX = "gc.alloc.rate.norm";
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private CompareResults() {
+        // forbidden instantiation
+    }
+
+    public static void main(final String... args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: CompareResults baseline.csv current.csv [threshold]");
+            System.exit(2);
+        }
+        final Map<String, Score> baseline = read(args[0]);
+        final Map<String, Score> current = read(args[1]);
+        final double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        int regressions = 0;
+        Score oldScore, newScore;
+        double change;
+        for (final Map.Entry<String, Score> entry : current.entrySet()) {
+            newScore = entry.getValue();
+            oldScore = baseline.get(entry.getKey());
+            if (oldScore == null) {
+                System.out.printf("NEW        %s: %.3f %s%n", entry.getKey(), newScore.value, newScore.unit);
+                continue;
+            }
+            change = oldScore.value == 0 ? (newScore.value == 0 ? 0 : 100) : (newScore.value - oldScore.value) * 100 / oldScore.value;
+            if (newScore.higherIsBetter) {
+                change = -change;
+            }
+            final String verdict;
+            if (change > threshold) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (change < -threshold) {
+                verdict = "IMPROVEMENT";
+            } else {
+                verdict = "SAME";
+            }
+            System.out.printf("%-11s%s: %.3f -> %.3f %s (%+.1f%%)%n", verdict, entry.getKey(), oldScore.value, newScore.value, newScore.unit, change);
+        }
+        for (final String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("MISSING    %s%n", key);
+            }
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(final String file) throws IOException {
+        final Map<String, Score> retVal = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            final List<String> header = parseLine(reader.readLine());
+            final int benchmarkIndex = header.indexOf("Benchmark");
+            final int modeIndex = header.indexOf("Mode");
+            final int scoreIndex = header.indexOf("Score");
+            final int unitIndex = header.indexOf("Unit");
+            if (benchmarkIndex < 0 || modeIndex < 0 || scoreIndex < 0 || unitIndex < 0) {
+                throw new IOException("File " + file + " is not JMH results file in CSV format");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                final List<String> values = parseLine(line);
+                final String benchmark = values.get(benchmarkIndex);
+                final boolean allocation = benchmark.endsWith(ALLOCATION_SUFFIX);
+                if (benchmark.indexOf(':') != -1 && !allocation) continue; // other secondary results are too noisy
+                final StringBuilder key = new StringBuilder(benchmark);
+                for (int i = 0; i < header.size() && i < values.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && !values.get(i).isEmpty()) {
+                        key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(values.get(i));
+                    }
+                }
+                final boolean higherIsBetter = !allocation && "thrpt".equals(values.get(modeIndex));
+                retVal.put(key.toString(), new Score(Double.parseDouble(values.get(scoreIndex).replace(',', '.')), values.get(unitIndex), higherIsBetter));
+            }
+        }
+        return retVal;
+    }
+
+    private static List<String> parseLine(final String line) {
+        final List<String> retVal = new ArrayList<>();
+        if (line == null) return retVal;
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        char c;
+        for (int i = 0; i < line.length(); i++) {
+            c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                retVal.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        retVal.add(value.toString());
+        return retVal;
+    }
+
+    private static final class Score {
+        private final double value;
+        private final String unit;
+        private final boolean higherIsBetter;
+
+        private Score(final double value, final String unit, final boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic corpus of strings resembling <code>CONSTANT_Utf8_info</code> contents of real class files
+ * (class names, descriptors, signatures and string literals) used by string matching benchmarks.
+ */
+public final class Corpus {
+
+    private static final String[] UNRELATED = {
+            "java/lang/Object",
+            "java/lang/String",
+            "(Ljava/lang/String;)V",
+            "(Ljava/util/Map;Ljava/lang/Object;)Ljava/lang/Object;",
+            "Ljava/util/List<Ljava/lang/String;>;",
+            "org/apache/commons/logging/LogFactory",
+            "java.util.concurrent.ConcurrentHashMap",
+            "Code",
+            "LineNumberTable",
+            "StackMapTable",
+            "<init>",
+            "toString",
+            "Connection refused while accessing remote resource",
+            "(IJLjava/lang/String;[B)Lorg/example/service/ResponseHandler;",
+    };
+    private static final String[] RELATED = {
+            "javax/servlet/http/HttpServletRequest",
+            "(Ljavax/servlet/ServletRequest;Ljavax/servlet/ServletResponse;)V",
+            "Ljavax/persistence/Entity;",
+            "javax.ws.rs.core.MediaType",
+            "Ljava/util/List<Ljavax/validation/ConstraintViolation<*>;>;",
+            "javax/ejb/EJBException",
+            "javax.faces.context.FacesContext",
+    };
+
+    private Corpus() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Generates strings corpus.
+     *
+     * @param size count of strings
+     * @param hitPercentage percentage of strings containing some mapped package
+     * @return strings corpus
+     */
+    public static String[] strings(final int size, final int hitPercentage) {
+        final Random random = new Random(size * 31L + hitPercentage);
+        final String[] retVal = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(100) < hitPercentage) {
+                retVal[i] = RELATED[random.nextInt(RELATED.length)];
+            } else {
+                retVal[i] = UNRELATED[random.nextInt(UNRELATED.length)];
+            }
+        }
+        return retVal;
+    }
+
+}
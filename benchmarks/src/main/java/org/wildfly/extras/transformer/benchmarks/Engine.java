@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.benchmarks;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.TransformerFactory;
+
+/**
+ * Transformation engines available to benchmarks. Engines are instantiated directly
+ * because {@link TransformerFactory#getInstance()} always picks the first engine found on class path.
+ */
+public enum Engine {
+
+    NODEPS {
+        @Override
+        TransformerFactory newFactory() {
+            return new org.wildfly.extras.transformer.nodeps.TransformerFactoryImpl();
+        }
+    },
+    ASM {
+        @Override
+        TransformerFactory newFactory() {
+            return new org.wildfly.extras.transformer.asm.TransformerFactoryImpl();
+        }
+    },
+    ECLIPSE {
+        @Override
+        TransformerFactory newFactory() {
+            return new org.wildfly.extras.transformer.eclipse.TransformerFactoryImpl();
+        }
+    };
+
+    abstract TransformerFactory newFactory();
+
+    /**
+     * Creates archive transformer with default packages mapping.
+     *
+     * @param parallelism count of transforming threads
+     * @return new archive transformer
+     */
+    public ArchiveTransformer newTransformer(final int parallelism) {
+        return newFactory().newTransformer().setParallelism(parallelism).build();
+    }
+
+}
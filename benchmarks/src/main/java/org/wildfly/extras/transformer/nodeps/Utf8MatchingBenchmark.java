@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.extras.transformer.CompiledMapping;
+import org.wildfly.extras.transformer.benchmarks.ClassShape;
+import org.wildfly.extras.transformer.benchmarks.Corpus;
+
+/**
+ * Measures searching for mapped packages inside modified UTF-8 strings. The {@link #naiveScan()}
+ * benchmark tries every mapping at every position and serves as a baseline for {@link Utf8Matcher}.
+ * Lives in the nodeps package because matching internals are package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Utf8MatchingBenchmark {
+
+    private static final int CORPUS_SIZE = 256;
+
+    @Param({"0", "10", "50"})
+    public int hitPercentage;
+
+    private Utf8InfoMapping mapping;
+    private byte[][] corpus;
+    private byte[] relatedClass;
+    private byte[] unrelatedClass;
+
+    @Setup
+    public void setup() throws IOException {
+        mapping = new ResourceTransformerImpl(CompiledMapping.load(null, false), false).utf8Mapping;
+        final String[] strings = Corpus.strings(CORPUS_SIZE, hitPercentage);
+        corpus = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            corpus[i] = ClassFileUtils.stringToUtf8(strings[i]);
+        }
+        relatedClass = ClassShape.MEDIUM.generate("benchmark/Related");
+        unrelatedClass = ClassShape.UNRELATED.generate("benchmark/Unrelated");
+    }
+
+    @Benchmark
+    public int matcher() {
+        int retVal = 0;
+        for (final byte[] s : corpus) {
+            if (mapping.matcher.find(s, 0, s.length) != -1) retVal++;
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public int naiveScan() {
+        int retVal = 0;
+        for (final byte[] s : corpus) {
+            if (naiveFind(s)) retVal++;
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public boolean mayNeedPatchingRelated() {
+        return ClassFileUtils.mayNeedPatching(relatedClass, mapping);
+    }
+
+    @Benchmark
+    public boolean mayNeedPatchingUnrelated() {
+        return ClassFileUtils.mayNeedPatching(unrelatedClass, mapping);
+    }
+
+    private boolean naiveFind(final byte[] s) {
+        byte[] pattern;
+        for (int i = 0; i <= s.length - mapping.min; i++) {
+            for (int j = 1; j < mapping.from.length; j++) {
+                pattern = mapping.from[j];
+                if (regionMatches(s, i, pattern)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(final byte[] s, final int offset, final byte[] pattern) {
+        if (offset + pattern.length > s.length) return false;
+        for (int i = 0; i < pattern.length; i++) {
+            if (s[offset + i] != pattern[i]) return false;
+        }
+        return true;
+    }
+
+}
@@ -32,7 +32,7 @@ final class ArchiveTransformerImpl extends ArchiveTransformer {
 
     @Override
     protected ResourceTransformer newResourceTransformer() throws IOException {
-        return new ResourceTransformerImpl(configsDir, verbose, invert);
+        return new ResourceTransformerImpl(getMapping(), verbose, getMetrics());
     }
 
 }
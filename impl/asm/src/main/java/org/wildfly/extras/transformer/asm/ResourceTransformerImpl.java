@@ -20,13 +20,12 @@ import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 import static org.objectweb.asm.Opcodes.POP;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
@@ -42,7 +41,10 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.TypePath;
 
+import org.wildfly.extras.transformer.CompiledMapping;
 import org.wildfly.extras.transformer.ResourceTransformer;
+import org.wildfly.extras.transformer.TransformerEvents;
+import org.wildfly.extras.transformer.TransformerMetrics;
 
 /**
  * Transformer
@@ -63,6 +65,8 @@ final class ResourceTransformerImpl extends ResourceTransformer {
     private static final String TLD_SUFFIX = ".tld";
     private static final String JSP_SUFFIX = ".jsp";
     private static final String META_INF_SERVICES_PREFIX = "META-INF/services/";
+    private static final Map<String, String> TEXT_FILE_REPLACEMENTS = Collections.singletonMap("javax.", "jakarta.");
+    private static final String GENERATE_REFLECTION_MODEL_OPERATION = "generateReflectionModel";
     private static final String CLASS_FOR_NAME_PRIVATE_METHOD = "org_wildfly_tranformer_asm_classForName_String__boolean_ClassLoader";
     private static final String REFLECTIONMODEL_INTERNAL_NAME = ReflectionModel.class.getName().replace('.','/');
     private static final String CLASS_OBJECT = "java/lang/Class";
@@ -74,10 +78,14 @@ final class ResourceTransformerImpl extends ResourceTransformer {
     
     private boolean classTransformed;
     private String changeClassName;
-    final Set<String> generatedReflectionModelHandlingCode = new CopyOnWriteArraySet<>();
+    final Map<String, byte[]> generatedReflectionModelHandlingCode = new ConcurrentHashMap<>();
 
-    ResourceTransformerImpl(final File configsDir, final boolean verbose, final boolean invert) throws IOException {
-        super(configsDir, verbose, invert);
+    ResourceTransformerImpl(final CompiledMapping mapping, final boolean verbose) {
+        this(mapping, verbose, null);
+    }
+
+    ResourceTransformerImpl(final CompiledMapping mapping, final boolean verbose, final TransformerMetrics metrics) {
+        super(mapping, verbose, metrics);
     }
 
     /**
@@ -306,15 +314,15 @@ final class ResourceTransformerImpl extends ResourceTransformer {
 
                     private void generateReflectionHandlingModelCode(String handlingClassName) {
                         // check if we generated reflection handling code yet, if not, generate it
-
-                        if (!generatedReflectionModelHandlingCode.contains(handlingClassName)) {
-
-                            if (!generatedReflectionModelHandlingCode.add(handlingClassName)) {
-                                // another thread will (or did) generate extra code 
-                                return;
-                            }
+                        final byte[] generatedCode = generatedReflectionModelHandlingCode.get(handlingClassName);
+                        if (generatedCode != null) {
+                            // return previously generated code, caller is responsible for adding it only once
+                            generatedExtraClass[0] = generatedCode;
+                            generatedExtraClass[1] = handlingClassName + CLASS_SUFFIX;
+                        } else {
 
                             System.out.println("Generating reflection handling code " + handlingClassName);
+                            final Object event = TransformerEvents.beginOperation();
                             try {
                                 // read BataviaReflectionModel bytecode as byte array, then modify it for handling javax => Jakarta transformation rules
                                 
@@ -398,8 +406,10 @@ final class ResourceTransformerImpl extends ResourceTransformer {
                                 
                                 // generatedExtraClass[0] can hold byte[] generatedReflectionModelHandlingByteCode
                                 // generatedExtraClass[1] can hold String generatedReflectionModelHandlingClassName
+                                generatedReflectionModelHandlingCode.put(handlingClassName, result);
                                 generatedExtraClass[0] = result;  
                                 generatedExtraClass[1] = handlingClassName +  CLASS_SUFFIX;
+                                TransformerEvents.endOperation(event, GENERATE_REFLECTION_MODEL_OPERATION, handlingClassName, result.length);
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
@@ -652,7 +662,11 @@ final class ResourceTransformerImpl extends ResourceTransformer {
                 setNewClassName(newResourceName);
             }
                     
-            return transform(newResourceName, r.getData());
+            final Resource[] transformed = transform(newResourceName, r.getData());
+            if (metrics != null) {
+                metrics.classFile(transformed != null && transformed.length != 0);
+            }
+            return transformed;
         } else if (oldResourceName.endsWith(XML_SUFFIX)) {
             retVal = new Resource(newResourceName, textFile(r.getData()));
         } else if (oldResourceName.endsWith(TLD_SUFFIX)) {
@@ -670,6 +684,18 @@ final class ResourceTransformerImpl extends ResourceTransformer {
         return retVal == null ? EMPTY_ARRAY : new Resource[] {retVal};
     }
 
+    @Override
+    protected StreamedResource transformStreamed(final String name) {
+        if (name.endsWith(CLASS_SUFFIX)) {
+            return null; // class files have to be parsed
+        } else if (name.endsWith(XML_SUFFIX) || name.endsWith(TLD_SUFFIX) || name.endsWith(JSP_SUFFIX)) {
+            return new StreamedResource(replacePackageName(name, false), TEXT_FILE_REPLACEMENTS);
+        } else if (name.startsWith(META_INF_SERVICES_PREFIX)) {
+            return new StreamedResource(replacePackageName(name, true));
+        }
+        return new StreamedResource(replacePackageName(name, false));
+    }
+
     private void setNewClassName(String newClassName) {
         if (newClassName.endsWith(CLASS_SUFFIX)) {
             newClassName = newClassName.substring(0,newClassName.length() - CLASS_SUFFIX_LENGTH);
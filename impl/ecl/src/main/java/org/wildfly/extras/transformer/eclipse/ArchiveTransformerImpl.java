@@ -23,9 +23,13 @@ import static org.eclipse.transformer.Transformer.AppOption.RULES_RENAMES;
 import org.eclipse.transformer.action.Changes;
 import org.eclipse.transformer.Transformer;
 import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.TransformerEvents;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +60,39 @@ final class ArchiveTransformerImpl extends ArchiveTransformer {
 
     @Override
     public boolean transform(final File inJarFile, final File outJarFile) {
+        final Object event = TransformerEvents.beginArchive();
+        boolean transformed = false;
+        try {
+            transformed = transformCached(getConfigsFingerprint(), inJarFile, outJarFile, this::transformInternal);
+            return transformed;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            TransformerEvents.endArchive(event, this, inJarFile, outJarFile, transformed);
+        }
+    }
+
+    /**
+     * Computes fingerprint of user provided configuration files. Default configuration files
+     * are part of transformer version so they don't have to be included.
+     */
+    private byte[] getConfigsFingerprint() throws IOException {
+        final ByteArrayOutputStream fingerprint = new ByteArrayOutputStream();
+        if (configsDir != null) {
+            for (String config : new String[] {DEFAULT_RENAMES_REFERENCE, DEFAULT_MASTER_TXT_REFERENCE, DEFAULT_PER_CLASS_REFERENCE, DEFAULT_DIRECT_REFERENCE}) {
+                File configFile = new File(configsDir, config);
+                if (configFile.exists() && configFile.isFile()) {
+                    fingerprint.write(config.getBytes(StandardCharsets.UTF_8));
+                    fingerprint.write(0);
+                    fingerprint.write(Files.readAllBytes(configFile.toPath()));
+                    fingerprint.write(0);
+                }
+            }
+        }
+        return fingerprint.toByteArray();
+    }
+
+    private boolean transformInternal(final File inJarFile, final File outJarFile) {
         boolean transformed;
         try {
             if (!verbose) {
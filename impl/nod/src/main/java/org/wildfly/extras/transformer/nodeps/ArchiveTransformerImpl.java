@@ -26,13 +26,27 @@ import java.io.IOException;
  */
 final class ArchiveTransformerImpl extends ArchiveTransformer {
 
+    /**
+     * Resource transformer shared by all threads using this archive transformer.
+     */
+    private volatile ResourceTransformer resourceTransformer;
+
     ArchiveTransformerImpl(final File configsDir, final boolean verbose, final boolean invert) {
         super(configsDir, verbose, invert);
     }
 
     @Override
     protected ResourceTransformer newResourceTransformer() throws IOException {
-        return new ResourceTransformerImpl(configsDir, verbose, invert);
+        ResourceTransformer retVal = resourceTransformer;
+        if (retVal == null) {
+            synchronized (this) {
+                retVal = resourceTransformer;
+                if (retVal == null) {
+                    resourceTransformer = retVal = new ResourceTransformerImpl(getMapping(), verbose, getMetrics());
+                }
+            }
+        }
+        return retVal;
     }
 
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+/**
+ * Per thread scratch memory of class file transformation. Class file pointers, constant pool offsets table,
+ * class file rewriter and methods patch plan are reused for every class transformed by the same thread so
+ * transforming unchanged or lightly changed class allocates nothing but the new class byte code.
+ * Data held by the arena are valid only until it is released.
+ * Instances of this class are not thread safe.
+ */
+final class ClassFileArena {
+
+    /**
+     * Buffers that grew over this capacity are not retained after class is transformed.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+    private static final ThreadLocal<ClassFileArena> ARENAS = ThreadLocal.withInitial(ClassFileArena::new);
+    final ClassFileRefs classFileRefs = new ClassFileRefs(new ConstantPoolRefs());
+    final ClassFileRewriter rewriter = new ClassFileRewriter();
+    final PatchPlan methodPatches = new PatchPlan();
+    private boolean acquired;
+
+    private ClassFileArena() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Acquires arena of current thread. Nested acquisition (e.g. class loading triggered during class
+     * transformation by agent) gets new temporary arena.
+     *
+     * @return arena to be released via {@link #release()}
+     */
+    static ClassFileArena acquire() {
+        ClassFileArena retVal = ARENAS.get();
+        if (retVal.acquired) {
+            retVal = new ClassFileArena();
+        }
+        retVal.acquired = true;
+        return retVal;
+    }
+
+    /**
+     * Releases arena. References to transformed class data are cleared so they can be garbage collected.
+     */
+    void release() {
+        classFileRefs.release(MAX_RETAINED_CAPACITY);
+        rewriter.release(MAX_RETAINED_CAPACITY);
+        methodPatches.trim(MAX_RETAINED_CAPACITY);
+        acquired = false;
+    }
+
+}
@@ -16,35 +16,51 @@
 package org.wildfly.extras.transformer.nodeps;
 
 /**
+ * Pointers to class file items. Instances can be reinitialized (see {@link #init(byte[])}) so instance
+ * of per thread {@link ClassFileArena} is reused for every transformed class. Methods are parsed lazily
+ * on first access so classes with constant pool patches only never parse their methods.
+ *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
 final class ClassFileRefs {
 
     private static final int MINOR_VERSION_REF = 4;
     private static final int MAJOR_VERSION_REF = 6;
+    private static final MethodInfoRefs[] NO_METHODS = new MethodInfoRefs[0];
     private final ConstantPoolRefs constantPool;
-    private final int minorVersion;
-    private final int majorVersion;
-    private final int accessFlagsRef;
-    private final int accessFlags;
-    private final int thisClassIndexRef;
-    private final int thisClassIndex;
-    private final int superClassIndexRef;
-    private final int superClassIndex;
-    private final int interfacesCountRef;
-    private final int interfacesStartRef;
-    private final int interfacesEndRef;
-    private final int[] interfaces;
-    private final int methodsCountRef;
-    private final int methodsStartRef;
-    private final int methodsEndRef;
-    private final MethodInfoRefs[] methods;
-
-    ClassFileRefs(final byte[] clazz, final ConstantPoolRefs constantPool,
-                  final int[] interfaces, final MethodInfoRefs[] methods) {
+    private byte[] clazz;
+    private int minorVersion;
+    private int majorVersion;
+    private int accessFlagsRef;
+    private int accessFlags;
+    private int thisClassIndexRef;
+    private int thisClassIndex;
+    private int superClassIndexRef;
+    private int superClassIndex;
+    private int interfacesCountRef;
+    private int interfacesCount;
+    private int interfacesStartRef;
+    private int interfacesEndRef;
+    private int methodsCountRef;
+    private int methodsStartRef;
+    private int methodsEndRef;
+    private MethodInfoRefs[] methods;
+
+    ClassFileRefs(final ConstantPoolRefs constantPool) {
+        this.constantPool = constantPool;
+    }
+
+    /**
+     * Computes pointers to class file items preceding fields. Constant pool pointers are reinitialized too.
+     *
+     * @param clazz class byte code
+     * @return this instance
+     */
+    ClassFileRefs init(final byte[] clazz) {
+        this.clazz = clazz;
+        constantPool.init(clazz);
         this.minorVersion = ClassFileUtils.readUnsignedShort(clazz, MINOR_VERSION_REF);
         this.majorVersion = ClassFileUtils.readUnsignedShort(clazz, MAJOR_VERSION_REF);
-        this.constantPool = constantPool;
         this.accessFlagsRef = constantPool.getItemsEndRef();
         this.accessFlags = ClassFileUtils.readUnsignedShort(clazz, accessFlagsRef);
         this.thisClassIndexRef = accessFlagsRef + 2;
@@ -52,13 +68,22 @@ final class ClassFileRefs {
         this.superClassIndexRef = this.thisClassIndexRef + 2;
         this.superClassIndex = ClassFileUtils.readUnsignedShort(clazz, superClassIndexRef);
         this.interfacesCountRef = superClassIndexRef + 2;
-        this.interfaces = interfaces;
+        this.interfacesCount = ClassFileUtils.readUnsignedShort(clazz, interfacesCountRef);
         this.interfacesStartRef = interfacesCountRef + 2;
-        this.interfacesEndRef = interfacesStartRef + interfaces.length * 2;
-        this.methodsCountRef = interfacesEndRef;
-        this.methods = methods;
-        this.methodsStartRef = methodsCountRef + 2;
-        this.methodsEndRef = methods.length > 0 ? methods[methods.length - 1].getMethodInfoEndRef() : this.methodsStartRef;
+        this.interfacesEndRef = interfacesStartRef + interfacesCount * 2;
+        this.methods = null;
+        return this;
+    }
+
+    /**
+     * Releases class references.
+     *
+     * @param maxCapacity max retained constant pool offsets table capacity
+     */
+    void release(final int maxCapacity) {
+        clazz = null;
+        methods = null;
+        constantPool.release(maxCapacity);
     }
 
     ConstantPoolRefs getConstantPool() {
@@ -122,11 +147,11 @@ final class ClassFileRefs {
     }
 
     int getInterfacesCount() {
-        return interfaces.length;
+        return interfacesCount;
     }
 
     int getInterfaceClassIndex(final int index) {
-        return interfaces[index];
+        return ClassFileUtils.readUnsignedShort(clazz, interfacesStartRef + index * 2);
     }
 
     int getInterfacesStartRef() {
@@ -138,23 +163,26 @@ final class ClassFileRefs {
     }
 
     int getMethodsCountRef() {
+        getMethods();
         return methodsCountRef;
     }
 
     int getMethodsCount() {
-        return methods.length;
+        return getMethods().length;
     }
 
     int getMethodsStartRef() {
+        getMethods();
         return methodsStartRef;
     }
 
     int getMethodsEndRef() {
+        getMethods();
         return methodsEndRef;
     }
 
     MethodInfoRefs getMethod(final byte[] clazz, final MethodDescriptor methodDescriptor) {
-        for (MethodInfoRefs method : methods) {
+        for (MethodInfoRefs method : getMethods()) {
             if (constantPool.utf8EqualsTo(method.getNameIndex(), methodDescriptor.methodName)) {
                 if (constantPool.utf8EqualsTo(method.getDescriptorIndex(), methodDescriptor.methodDescriptor)) {
                     return method;
@@ -165,21 +193,18 @@ final class ClassFileRefs {
     }
 
     MethodInfoRefs getMethod(final int index) {
-        return methods[index];
+        return getMethods()[index];
     }
 
-    static ClassFileRefs of(final byte[] clazz) {
-        // process constant pool
-        final ConstantPoolRefs cpRefs = ConstantPoolRefs.of(clazz);
-        // process interfaces
-        int position = cpRefs.getItemsEndRef() + 6;
-        final int interfacesCount = ClassFileUtils.readUnsignedShort(clazz, position);
-        position += 2;
-        final int[] interfaces = new int[interfacesCount];
-        for (int i = 0; i < interfacesCount; i++) {
-            interfaces[i] = ClassFileUtils.readUnsignedShort(clazz, position);
-            position += 2;
+    private MethodInfoRefs[] getMethods() {
+        if (methods == null) {
+            parseMethods();
         }
+        return methods;
+    }
+
+    private void parseMethods() {
+        int position = interfacesEndRef;
         // process fields count
         final int fieldsCount = ClassFileUtils.readUnsignedShort(clazz, position);
         position += 2;
@@ -199,15 +224,22 @@ final class ClassFileRefs {
             }
         }
         // process methods count
+        methodsCountRef = position;
         final int methodsCount = ClassFileUtils.readUnsignedShort(clazz, position);
         position += 2;
-        final MethodInfoRefs[] methods = new MethodInfoRefs[methodsCount];
+        methodsStartRef = position;
+        final MethodInfoRefs[] methods = methodsCount > 0 ? new MethodInfoRefs[methodsCount] : NO_METHODS;
         // process methods
         for (int i = 0; i < methods.length; i++) {
-            methods[i] = MethodInfoRefs.of(clazz, cpRefs, position, i);
+            methods[i] = MethodInfoRefs.of(clazz, constantPool, position, i);
             position = methods[i].getMethodInfoEndRef();
         }
-        return new ClassFileRefs(clazz, cpRefs, interfaces, methods);
+        methodsEndRef = position;
+        this.methods = methods;
+    }
+
+    static ClassFileRefs of(final byte[] clazz) {
+        return new ClassFileRefs(new ConstantPoolRefs()).init(clazz);
     }
 
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.util.Arrays;
+
+/**
+ * Single pass class file rewriter. Patches are recorded in class file order as they are discovered.
+ * Unchanged class file segments and patch data are gathered by reference and new values of items preceding
+ * the data they describe (e.g. <code>CONSTANT_Utf8_info</code> length or <code>Code_attribute</code> lengths)
+ * can be bound after the data were recorded. New class file is materialized only once into exactly sized array.
+ * Instances can be reused (see {@link #reset(byte[])}) so rewriter of per thread {@link ClassFileArena}
+ * allocates only when its buffers need to grow.
+ * Instances of this class are not thread safe.
+ */
+final class ClassFileRewriter {
+
+    private static final int INITIAL_SEGMENTS_CAPACITY = 32;
+    private static final int INITIAL_VALUES_CAPACITY = 32;
+    private byte[] oldClass;
+    /**
+     * Segment data. The <code>null</code> value refers to {@link #values}.
+     */
+    private byte[][] sources = new byte[INITIAL_SEGMENTS_CAPACITY][];
+    private int[] offsets = new int[INITIAL_SEGMENTS_CAPACITY];
+    private int[] lengths = new int[INITIAL_SEGMENTS_CAPACITY];
+    private int segmentsCount;
+    /**
+     * Encoded values replacing original class file items.
+     */
+    private byte[] values = new byte[INITIAL_VALUES_CAPACITY];
+    private int valuesLength;
+    /**
+     * Old class file position all bytes before which were either gathered or skipped.
+     */
+    private int position;
+    private boolean modified;
+
+    /**
+     * Starts rewriting of given class. Previously recorded segments are discarded.
+     *
+     * @param oldClass original class byte code or <code>null</code> to release all references
+     * @return this instance
+     */
+    ClassFileRewriter reset(final byte[] oldClass) {
+        this.oldClass = oldClass;
+        Arrays.fill(sources, 0, segmentsCount, null);
+        segmentsCount = 0;
+        valuesLength = 0;
+        position = 0;
+        modified = false;
+        return this;
+    }
+
+    /**
+     * Releases all references and buffers that grew over given capacity.
+     *
+     * @param maxSegments max retained segments capacity
+     */
+    void release(final int maxSegments) {
+        reset(null);
+        if (sources.length > maxSegments) {
+            sources = new byte[INITIAL_SEGMENTS_CAPACITY][];
+            offsets = new int[INITIAL_SEGMENTS_CAPACITY];
+            lengths = new int[INITIAL_SEGMENTS_CAPACITY];
+        }
+        if (values.length > maxSegments) {
+            values = new byte[INITIAL_VALUES_CAPACITY];
+        }
+    }
+
+    /**
+     * Gathers old class file bytes from current position up to given position.
+     *
+     * @param end old class file position (exclusive)
+     */
+    void copy(final int end) {
+        if (end <= position) return;
+        final int length = end - position;
+        final int last = segmentsCount - 1;
+        if (last >= 0 && sources[last] == oldClass && offsets[last] + lengths[last] == position) {
+            lengths[last] += length;
+        } else {
+            addSegment(oldClass, position, length);
+        }
+        position = end;
+    }
+
+    /**
+     * Skips old class file bytes replaced by patch.
+     *
+     * @param length count of bytes to skip
+     */
+    void skip(final int length) {
+        position += length;
+        modified = true;
+    }
+
+    /**
+     * Gathers patch data. The data must not be modified until new class file is materialized.
+     *
+     * @param data patch data
+     */
+    void write(final byte[] data) {
+        if (data.length == 0) return;
+        addSegment(data, 0, data.length);
+        modified = true;
+    }
+
+    /**
+     * Writes <code>u2</code> value.
+     *
+     * @param value value to write
+     * @return value reference for {@link #setUnsignedShort(int, int)}
+     */
+    int writeUnsignedShort(final int value) {
+        final int valueRef = addValue(2);
+        ClassFileUtils.writeUnsignedShort(values, valueRef, value);
+        return valueRef;
+    }
+
+    /**
+     * Writes <code>u4</code> value.
+     *
+     * @param value value to write
+     * @return value reference
+     */
+    int writeUnsignedInt(final int value) {
+        final int valueRef = addValue(4);
+        ClassFileUtils.writeUnsignedInt(values, valueRef, value);
+        return valueRef;
+    }
+
+    /**
+     * Binds new value to <code>u2</code> item previously written by {@link #writeUnsignedShort(int)}.
+     */
+    void setUnsignedShort(final int valueRef, final int value) {
+        ClassFileUtils.writeUnsignedShort(values, valueRef, value);
+    }
+
+    /**
+     * Returns <code>true</code> if some patch was recorded.
+     */
+    boolean isModified() {
+        return modified;
+    }
+
+    int getSegmentsCount() {
+        return segmentsCount;
+    }
+
+    /**
+     * Materializes new class file. Remaining old class file bytes are gathered first.
+     *
+     * @return new class file
+     * @throws UnsupportedOperationException if new class file would exceed max allowed size
+     */
+    byte[] toByteArray() {
+        copy(oldClass.length);
+        return toByteArray(0);
+    }
+
+    /**
+     * Materializes segments recorded so far starting with given segment.
+     *
+     * @param fromSegment first segment index
+     * @return gathered bytes
+     */
+    byte[] toByteArray(final int fromSegment) {
+        long length = 0;
+        for (int i = fromSegment; i < segmentsCount; i++) {
+            length += lengths[i];
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Couldn't patch class file. The transformed class file would exceed max allowed size " + Integer.MAX_VALUE + " bytes");
+        }
+        final byte[] retVal = new byte[(int) length];
+        int retValOffset = 0;
+        for (int i = fromSegment; i < segmentsCount; i++) {
+            System.arraycopy(sources[i] != null ? sources[i] : values, offsets[i], retVal, retValOffset, lengths[i]);
+            retValOffset += lengths[i];
+        }
+        return retVal;
+    }
+
+    private int addValue(final int length) {
+        if (valuesLength + length > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        final int valueRef = valuesLength;
+        valuesLength += length;
+        final int last = segmentsCount - 1;
+        if (last >= 0 && sources[last] == null && offsets[last] + lengths[last] == valueRef) {
+            lengths[last] += length;
+        } else {
+            addSegment(null, valueRef, length);
+        }
+        modified = true;
+        return valueRef;
+    }
+
+    private void addSegment(final byte[] source, final int offset, final int length) {
+        if (segmentsCount == sources.length) {
+            sources = Arrays.copyOf(sources, segmentsCount * 2);
+            offsets = Arrays.copyOf(offsets, segmentsCount * 2);
+            lengths = Arrays.copyOf(lengths, segmentsCount * 2);
+        }
+        sources[segmentsCount] = source;
+        offsets[segmentsCount] = offset;
+        lengths[segmentsCount] = length;
+        segmentsCount++;
+    }
+
+}
@@ -133,19 +133,70 @@ final class ClassFileUtils {
     }
 
     /**
-     * Counts how many <code>CONSTANT_Utf8_info</code> structures are present in the class constant pool.
+     * Quickly checks whether class may need to be patched. Only <code>CONSTANT_Utf8_info</code> structures
+     * of class constant pool are inspected and nothing is allocated. Class needs to be inspected in detail only if some
+     * <code>CONSTANT_Utf8_info</code> structure contains mapped string or if it is name of a class
+     * owning some method defined in <code>MethodRedirection.MAPPING</code>.
      *
-     * @param cpRefs pointers to class constant pool
-     * @return <code>CONSTANT_Utf8_info</code> structures count in class constant pool
+     * @param clazz class data
+     * @param mapping packages mapping
+     * @return <code>false</code> if class definitely doesn't need to be patched, <code>true</code> otherwise
      */
-    static int countUtf8Items(final ConstantPoolRefs cpRefs) {
-        int retVal = 0;
+    static boolean mayNeedPatching(final byte[] clazz, final Utf8InfoMapping mapping) {
+        final int constantPoolSize = readUnsignedShort(clazz, 8);
+        int position = 10;
+        byte tag;
+        int utf8Length;
+
+        for (int i = 1; i < constantPoolSize; i++) {
+            tag = clazz[position++];
+            if (tag == ConstantPoolTags.UTF8) {
+                utf8Length = readUnsignedShort(clazz, position);
+                position += 2;
+                if (utf8Length >= mapping.min && mapping.matcher.find(clazz, position, position + utf8Length) != -1) return true;
+                if (MethodRedirection.INDEX.isRedirectedClassName(clazz, position, utf8Length)) return true;
+                position += utf8Length;
+            } else if (tag == ConstantPoolTags.CLASS || tag == ConstantPoolTags.STRING || tag == ConstantPoolTags.METHOD_TYPE || tag == ConstantPoolTags.MODULE || tag == ConstantPoolTags.PACKAGE) {
+                position += 2;
+            } else if (tag == ConstantPoolTags.LONG || tag == ConstantPoolTags.DOUBLE) {
+                position += 8;
+                i++;
+            } else if (tag == ConstantPoolTags.INTEGER || tag == ConstantPoolTags.FLOAT || tag == ConstantPoolTags.FIELD_REF || tag == ConstantPoolTags.METHOD_REF ||
+                    tag == ConstantPoolTags.INTERFACE_METHOD_REF || tag == ConstantPoolTags.NAME_AND_TYPE || tag == ConstantPoolTags.DYNAMIC || tag == ConstantPoolTags.INVOKE_DYNAMIC) {
+                position += 4;
+            } else if (tag == ConstantPoolTags.METHOD_HANDLE) {
+                position += 3;
+            } else {
+                throw new UnsupportedClassVersionError();
+            }
+        }
+
+        return false;
+    }
 
-        for (int i = 1; i < cpRefs.getSize(); i++) {
-            if (cpRefs.isUtf8(i)) retVal++;
+    /**
+     * Continues computation of hash code with given data range.
+     *
+     * @param hash hash code of preceding data
+     * @param data data to hash
+     * @param offset data start index (inclusive)
+     * @param length data length
+     * @return hash code
+     */
+    static int hashCode(final int hash, final byte[] data, final int offset, final int length) {
+        int retVal = hash;
+        for (int i = offset; i < offset + length; i++) {
+            retVal = 31 * retVal + data[i];
         }
+        return 31 * retVal + length;
+    }
 
-        return retVal;
+    static boolean utf8EqualsTo(final byte[] clazz, final int offset, final int length, final byte[] value) {
+        if (length != value.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (clazz[offset + i] != value[i]) return false;
+        }
+        return true;
     }
 
     /**
@@ -23,7 +23,7 @@ import static org.wildfly.extras.transformer.nodeps.ClassFileUtils.readUnsignedS
  */
 final class CodeAttributeRefs {
 
-    static final String ATTRIBUTE_NAME = "Code";
+    static final byte[] ATTRIBUTE_NAME = ClassFileUtils.stringToUtf8("Code");
     private final int attributeStartRef;
     private final int attributeEndRef;
     private final int attributeNameIndexRef;
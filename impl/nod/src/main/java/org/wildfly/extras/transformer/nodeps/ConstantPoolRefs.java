@@ -16,41 +16,33 @@
 package org.wildfly.extras.transformer.nodeps;
 
 /**
+ * Pointers to class constant pool items. Instances can be reinitialized (see {@link #init(byte[])})
+ * so constant pool offsets table of per thread {@link ClassFileArena} is reused for every transformed class.
+ *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
 final class ConstantPoolRefs {
 
     private static final int CONSTANT_POOL_SIZE_START_INDEX = 8;
     private static final int CONSTANT_POOL_ITEMS_START_INDEX = 10;
-    private final byte[] clazz;
-    private final int[] constantPool;
-    private final int sizeStartRef;
-    private final int itemsStartRef;
-    private final int itemsEndRef;
-
-    ConstantPoolRefs(final byte[] clazz, final int[] constantPool, final int sizeStartRef, final int itemsStartRef, final int itemsEndRef) {
-        this.clazz = clazz;
-        this.constantPool = constantPool;
-        this.sizeStartRef = sizeStartRef;
-        this.itemsStartRef = itemsStartRef;
-        this.itemsEndRef = itemsEndRef;
-    }
-
+    private static final int[] EMPTY_ARRAY = new int[0];
+    private byte[] clazz;
     /**
-     * Returns pointers to the <code>class constant pool items</code> indexed from 1 till end of array.
+     * Pointers to the <code>class constant pool items</code> indexed from 1 till {@link #size}.
      * Every <code>zero</code> value inside it represents <code>undefined</code> value.
-     * @return array of constant pool item pointers
      */
-    int[] getItemRefs() {
-        return constantPool;
-    }
+    private int[] constantPool = EMPTY_ARRAY;
+    private int size;
+    private final int sizeStartRef = CONSTANT_POOL_SIZE_START_INDEX;
+    private final int itemsStartRef = CONSTANT_POOL_ITEMS_START_INDEX;
+    private int itemsEndRef;
 
     int getSizeStartRef() {
         return sizeStartRef;
     }
 
     int getSize() {
-        return constantPool.length;
+        return size;
     }
 
     int getItemsStartRef() {
@@ -93,6 +85,19 @@ final class ConstantPoolRefs {
         return true;
     }
 
+    boolean utf8StartsWith(final int index, final byte[] prefix) {
+        if (getUtf8_Length(index) < prefix.length) return false;
+        final int utf8BytesRef = getUtf8_BytesRef(index);
+        for (int i = 0; i < prefix.length; i++) {
+            if (clazz[utf8BytesRef + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    int utf8HashCode(final int index, final int hash) {
+        return ClassFileUtils.hashCode(hash, clazz, getUtf8_BytesRef(index), getUtf8_Length(index));
+    }
+
     int getUtf8_LengthRef(final int index) {
         if (!isUtf8(index)) throw new IllegalArgumentException();
         return constantPool[index] + 1;
@@ -187,10 +192,21 @@ final class ConstantPoolRefs {
     }
 
     static ConstantPoolRefs of(final byte[] clazz) {
+        return new ConstantPoolRefs().init(clazz);
+    }
+
+    /**
+     * Computes pointers to constant pool items of given class. Previously allocated offsets table is reused if possible.
+     *
+     * @param clazz class byte code
+     * @return this instance
+     */
+    ConstantPoolRefs init(final byte[] clazz) {
         final int constantPoolSize = ClassFileUtils.readUnsignedShort(clazz, CONSTANT_POOL_SIZE_START_INDEX);
-        final int cpItemsStartIndex = CONSTANT_POOL_ITEMS_START_INDEX;
-        final int[] constantPool = new int[constantPoolSize];
-        int position = cpItemsStartIndex;
+        if (constantPool.length < constantPoolSize) {
+            constantPool = new int[constantPoolSize];
+        }
+        int position = itemsStartRef;
         byte tag;
         int utf8Length;
 
@@ -204,7 +220,7 @@ final class ConstantPoolRefs {
                 position += 2;
             } else if (tag == ConstantPoolTags.LONG || tag == ConstantPoolTags.DOUBLE) {
                 position += 8;
-                i++;
+                constantPool[++i] = 0;
             } else if (tag == ConstantPoolTags.INTEGER || tag == ConstantPoolTags.FLOAT || tag == ConstantPoolTags.FIELD_REF || tag == ConstantPoolTags.METHOD_REF ||
                     tag == ConstantPoolTags.INTERFACE_METHOD_REF || tag == ConstantPoolTags.NAME_AND_TYPE || tag == ConstantPoolTags.DYNAMIC || tag == ConstantPoolTags.INVOKE_DYNAMIC) {
                 position += 4;
@@ -214,8 +230,23 @@ final class ConstantPoolRefs {
                 throw new UnsupportedClassVersionError();
             }
         }
-        final int cpItemsEndIndex = position;
-        return new ConstantPoolRefs(clazz, constantPool, CONSTANT_POOL_SIZE_START_INDEX, cpItemsStartIndex, cpItemsEndIndex);
+        this.clazz = clazz;
+        this.size = constantPoolSize;
+        this.itemsEndRef = position;
+        return this;
+    }
+
+    /**
+     * Releases class reference and offsets table if it grew over given capacity.
+     *
+     * @param maxCapacity max retained offsets table capacity
+     */
+    void release(final int maxCapacity) {
+        clazz = null;
+        size = 0;
+        if (constantPool.length > maxCapacity) {
+            constantPool = EMPTY_ARRAY;
+        }
     }
 
 }
@@ -126,7 +126,7 @@ final class MethodInfoRefs {
             attributeLength = ClassFileUtils.readUnsignedInt(clazz, position);
             position += 4;
             attributeEndRef = position + attributeLength;
-            isCodeAttribute = CodeAttributeRefs.ATTRIBUTE_NAME.equals(cpRefs.getUtf8AsString(attributeNameIndex));
+            isCodeAttribute = cpRefs.utf8EqualsTo(attributeNameIndex, CodeAttributeRefs.ATTRIBUTE_NAME);
             if (isCodeAttribute) {
                 codeAttributeRefs = CodeAttributeRefs.of(clazz, attributeStartRef);
             } else {
@@ -30,6 +30,11 @@ final class MethodRedirection {
      */
     static final MethodDescriptor[][] MAPPING;
 
+    /**
+     * Hash index over methods we are going to eliminate (<code>MAPPING[i][0]</code>).
+     */
+    static final MethodRedirectionIndex INDEX;
+
     private static final String THIS_PACKAGE = MethodRedirection.class.getPackage().getName().replace(".", "/");
 
     static {
@@ -71,6 +76,11 @@ final class MethodRedirection {
         MAPPING[row][0] = new MethodDescriptor(true, "java/lang/ClassLoader", "getSystemResources", "(Ljava/lang/String;)Ljava/util/Enumeration;");
         MAPPING[row][1] = new MethodDescriptor(true, THIS_PACKAGE + "/JavaLangTransformUtils", "ClassLoader_getSystemResources", "(Ljava/lang/String;)Ljava/util/Enumeration;");
         row++;
+        final MethodDescriptor[] redirectedMethods = new MethodDescriptor[MAPPING.length];
+        for (int i = 0; i < MAPPING.length; i++) {
+            redirectedMethods[i] = MAPPING[i][0];
+        }
+        INDEX = new MethodRedirectionIndex(redirectedMethods);
     }
 
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash index over redirected methods (see {@link MethodRedirection#MAPPING}).
+ * Every <code>CONSTANT_Methodref_info</code> structure is resolved with single hash lookup
+ * on its class name, method name and method descriptor <code>CONSTANT_Utf8_info</code> structures
+ * so lookup cost doesn't depend on count of redirected methods.
+ * Instances of this class are immutable and thus thread safe.
+ */
+final class MethodRedirectionIndex {
+
+    private static final int EMPTY_SLOT = -1;
+    private final MethodDescriptor[] methods;
+    /**
+     * Index into {@link #methods} or {@link #EMPTY_SLOT}.
+     */
+    private final int[] methodSlots;
+    private final int[] methodHashes;
+    private final byte[][] classNames;
+    /**
+     * Index into {@link #classNames} or {@link #EMPTY_SLOT}.
+     */
+    private final int[] classSlots;
+    private final int[] classHashes;
+
+    MethodRedirectionIndex(final MethodDescriptor[] methods) {
+        this.methods = methods;
+        methodSlots = newSlots(methods.length);
+        methodHashes = new int[methodSlots.length];
+        classSlots = newSlots(methods.length);
+        classHashes = new int[classSlots.length];
+        classNames = new byte[methods.length][];
+        int classNamesCount = 0;
+        MethodDescriptor method;
+        int hash, slot;
+        for (int i = 0; i < methods.length; i++) {
+            method = methods[i];
+            hash = hashCode(method.className, method.methodName, method.methodDescriptor);
+            for (slot = hash & (methodSlots.length - 1); methodSlots[slot] != EMPTY_SLOT; slot = (slot + 1) & (methodSlots.length - 1)) {
+                if (equals(methods[methodSlots[slot]], method)) {
+                    throw new IllegalArgumentException("Duplicate method redirection: " + ClassFileUtils.utf8ToString(method.className, 0, method.className.length)
+                            + "." + ClassFileUtils.utf8ToString(method.methodName, 0, method.methodName.length)
+                            + ClassFileUtils.utf8ToString(method.methodDescriptor, 0, method.methodDescriptor.length));
+                }
+            }
+            methodSlots[slot] = i;
+            methodHashes[slot] = hash;
+            hash = mix(ClassFileUtils.hashCode(0, method.className, 0, method.className.length));
+            if (indexOfClassName(method.className, 0, method.className.length, hash) == EMPTY_SLOT) {
+                slot = hash & (classSlots.length - 1);
+                while (classSlots[slot] != EMPTY_SLOT) {
+                    slot = (slot + 1) & (classSlots.length - 1);
+                }
+                classNames[classNamesCount] = method.className;
+                classSlots[slot] = classNamesCount++;
+                classHashes[slot] = hash;
+            }
+        }
+    }
+
+    /**
+     * Lookups method referenced by given <code>CONSTANT_Methodref_info</code> structure.
+     *
+     * @param cpRefs class constant pool
+     * @param methodRefIndex index of <code>CONSTANT_Methodref_info</code> structure in class constant pool
+     * @return index of referenced method in redirected methods or <code>-1</code> if method is not redirected
+     */
+    int indexOf(final ConstantPoolRefs cpRefs, final int methodRefIndex) {
+        final int classNameIndex = cpRefs.getClass_NameIndex(cpRefs.getMethodRef_ClassIndex(methodRefIndex));
+        final int methodNameAndTypeIndex = cpRefs.getMethodRef_NameAndTypeIndex(methodRefIndex);
+        final int methodNameIndex = cpRefs.getNameAndType_NameIndex(methodNameAndTypeIndex);
+        final int methodDescriptorIndex = cpRefs.getNameAndType_DescriptorIndex(methodNameAndTypeIndex);
+        final int hash = mix(cpRefs.utf8HashCode(methodDescriptorIndex, cpRefs.utf8HashCode(methodNameIndex, cpRefs.utf8HashCode(classNameIndex, 0))));
+        MethodDescriptor method;
+        for (int slot = hash & (methodSlots.length - 1); methodSlots[slot] != EMPTY_SLOT; slot = (slot + 1) & (methodSlots.length - 1)) {
+            if (methodHashes[slot] != hash) continue;
+            method = methods[methodSlots[slot]];
+            if (cpRefs.utf8EqualsTo(classNameIndex, method.className) && cpRefs.utf8EqualsTo(methodNameIndex, method.methodName)
+                    && cpRefs.utf8EqualsTo(methodDescriptorIndex, method.methodDescriptor)) {
+                return methodSlots[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether given <code>CONSTANT_Utf8_info</code> structure bytes represent name of a class owning some redirected method.
+     *
+     * @param clazz class data
+     * @param offset <code>CONSTANT_Utf8_info</code> structure bytes start index
+     * @param length <code>CONSTANT_Utf8_info</code> structure bytes length
+     * @return <code>true</code> if class owns some redirected method, <code>false</code> otherwise
+     */
+    boolean isRedirectedClassName(final byte[] clazz, final int offset, final int length) {
+        return indexOfClassName(clazz, offset, length, mix(ClassFileUtils.hashCode(0, clazz, offset, length))) != EMPTY_SLOT;
+    }
+
+    private int indexOfClassName(final byte[] clazz, final int offset, final int length, final int hash) {
+        for (int slot = hash & (classSlots.length - 1); classSlots[slot] != EMPTY_SLOT; slot = (slot + 1) & (classSlots.length - 1)) {
+            if (classHashes[slot] == hash && ClassFileUtils.utf8EqualsTo(clazz, offset, length, classNames[classSlots[slot]])) {
+                return classSlots[slot];
+            }
+        }
+        return EMPTY_SLOT;
+    }
+
+    private static int[] newSlots(final int size) {
+        // keep load factor at most 0.5
+        int capacity = 2;
+        while (capacity < size * 2) capacity <<= 1;
+        final int[] retVal = new int[capacity];
+        Arrays.fill(retVal, EMPTY_SLOT);
+        return retVal;
+    }
+
+    private static int hashCode(final byte[] className, final byte[] methodName, final byte[] methodDescriptor) {
+        int retVal = ClassFileUtils.hashCode(0, className, 0, className.length);
+        retVal = ClassFileUtils.hashCode(retVal, methodName, 0, methodName.length);
+        return mix(ClassFileUtils.hashCode(retVal, methodDescriptor, 0, methodDescriptor.length));
+    }
+
+    private static int mix(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(final MethodDescriptor first, final MethodDescriptor second) {
+        return ClassFileUtils.utf8EqualsTo(first.className, 0, first.className.length, second.className)
+                && ClassFileUtils.utf8EqualsTo(first.methodName, 0, first.methodName.length, second.methodName)
+                && ClassFileUtils.utf8EqualsTo(first.methodDescriptor, 0, first.methodDescriptor.length, second.methodDescriptor);
+    }
+
+}
@@ -15,16 +15,41 @@
  */
 package org.wildfly.extras.transformer.nodeps;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import static org.wildfly.extras.transformer.nodeps.Opcodes.*;
 
 /**
+ * Method implementations patch. Patches of all methods are encoded in single {@link PatchPlan}
+ * as sequence of <code>method patch info</code> structures with the following format:
+ * <p>
+ *     <pre>
+ *        +-------------+ METHOD PATCH INFO STRUCTURE HEADER
+ *        | integer 0   | holds <code>method_info</code> index inside class file
+ *        | integer 1   | holds <code>method_info</code> structure difference in bytes after applied patches
+ *        | integer 2   | new <code>max_stack</code> item value of method's <code>Code_attribute</code> structure
+ *        | integer 3   | new <code>max_locals</code> item value of method's <code>Code_attribute</code> structure
+ *        | integer 4   | holds count of applied patches
+ *        +-------------+ METHOD PATCH INFO STRUCTURE DATA
+ *        | integer 5   | holds non-zero mapping index in mapping tables of 1-st applied patch
+ *        | integer 6   | holds index of 1-st patch start inside CodeAttribute's code section of original <code>method_info</code> structure
+ *        +-------------+
+ *        | integer 7   | holds non-zero mapping index in mapping tables of 2-nd applied patch
+ *        | integer 8   | holds index of 2-nd patch start inside CodeAttribute's code section of original <code>method_info</code> structure
+ *        +-------------+
+ *        |    ...      | etc
+ *        +-------------+
+ *     </pre>
+ * </p>
+ *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
 final class MethodsPatch {
 
+    static final int METHOD_INDEX = 0;
+    static final int DIFF_IN_BYTES = 1;
+    static final int MAX_STACK = 2;
+    static final int MAX_LOCALS = 3;
+    static final int PATCHES_COUNT = 4;
+    static final int HEADER_SIZE = 5;
     private static final byte[] JAVA_UTIL_MAP_CLASS = ClassFileUtils.stringToUtf8("java/util/Map");
     private static final byte[] PUT_METHOD_NAME = ClassFileUtils.stringToUtf8("put");
     private static final byte[] PUT_METHOD_DESCRIPTOR = ClassFileUtils.stringToUtf8("(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
@@ -35,7 +60,11 @@ final class MethodsPatch {
      */
     private static final int MINIMUM = 3;
     final int diffInBytes;
-    final List<int[]> methodPatches;
+    /**
+     * Method patches. The plan can be owned by {@link ClassFileArena} and it is valid only
+     * until next class is transformed by the same thread in such case.
+     */
+    final PatchPlan methodPatches;
 
     /**
      * Continuous bytes except of Java VM code that was part of <code>method_info</code>'s code (previous implementation).
@@ -49,48 +78,38 @@ final class MethodsPatch {
      */
     final byte[][] mappingTo;
 
-    private MethodsPatch(final int diffInBytes, final List<int[]> methodPatches, final byte[][] mappingFrom, final byte[][] mappingTo) {
+    private MethodsPatch(final int diffInBytes, final PatchPlan methodPatches, final byte[][] mappingFrom, final byte[][] mappingTo) {
         this.diffInBytes = diffInBytes;
         this.methodPatches = methodPatches;
         this.mappingFrom = mappingFrom;
         this.mappingTo = mappingTo;
     }
 
-    static MethodsPatch getPatchForMethodRedirects(final byte[] clazz, final ClassFileRefs cfRefs, final int[][] methodRefRedirects) {
+    static MethodsPatch getPatchForMethodRedirects(final byte[] clazz, final ClassFileRefs cfRefs, final int[][] methodRefRedirects,
+                                                   final PatchPlan methodPatches) {
         int diffInBytes = 0;
-        List<int[]> methodPatches = null;
-        int[] patch;
         final byte[][] mappingFrom = generateMappingFrom(methodRefRedirects, MethodRedirection.MAPPING);
         final byte[][] mappingTo = generateMappingTo(methodRefRedirects, MethodRedirection.MAPPING);
         MethodInfoRefs methodInfo;
         CodeAttributeRefs codeAttribute;
+        methodPatches.clear();
         for (int i = 0; i < cfRefs.getMethodsCount(); i++) {
             methodInfo = cfRefs.getMethod(i);
             codeAttribute = methodInfo.getCodeAttribute();
             if (codeAttribute == null) continue;
-            patch = getMethodPatch(clazz, codeAttribute, i,  mappingFrom, mappingTo);
-            if (patch != null) {
-                if (methodPatches == null) {
-                    methodPatches = new ArrayList<>(cfRefs.getMethodsCount());
-                }
-                diffInBytes += patch[1];
-                methodPatches.add(patch);
-            }
+            diffInBytes += addMethodPatch(clazz, codeAttribute, i, mappingFrom, mappingTo, methodPatches);
         }
-        return methodPatches != null ? new MethodsPatch(diffInBytes, methodPatches, mappingFrom, mappingTo) : null;
+        return !methodPatches.isEmpty() ? new MethodsPatch(diffInBytes, methodPatches, mappingFrom, mappingTo) : null;
     }
 
     static MethodsPatch getPatchForAddingMappingToUtilityClass(final byte[] clazz, final ClassFileRefs cfRefs, final int[][] mappingStrings) {
         int diffInBytes = 0;
-        final List<int[]> methodPatches = new ArrayList<>(cfRefs.getMethodsCount());
-        final int[] patch;
+        final PatchPlan methodPatches = new PatchPlan();
         final byte[][] mappingFrom = generateMappingFrom(cfRefs.getConstantPool());
         final byte[][] mappingTo = generateMappingTo(cfRefs.getConstantPool(), mappingStrings);
         final MethodInfoRefs classInitMethodInfo = cfRefs.getMethod(clazz, MethodDescriptor.STATIC_INIT);
         CodeAttributeRefs codeAttribute = classInitMethodInfo.getCodeAttribute();
-        patch = getMethodPatch(clazz, codeAttribute, classInitMethodInfo.getIndex(),  mappingFrom, mappingTo);
-        diffInBytes += patch[1];
-        methodPatches.add(patch);
+        diffInBytes += addMethodPatch(clazz, codeAttribute, classInitMethodInfo.getIndex(), mappingFrom, mappingTo, methodPatches);
         return new MethodsPatch(diffInBytes, methodPatches, mappingFrom, mappingTo);
     }
 
@@ -242,46 +261,25 @@ final class MethodsPatch {
     }
 
     /**
-     * Returns <code>method patch info</code> if patches were detected or <code>null</code> if there is no patch applicable.
-     * Every <code>method patch info</code> has the following format:
-     * <p>
-     *     <pre>
-     *        +-------------+ PATCH INFO STRUCTURE HEADER
-     *        | integer 0   | holds <code>method_info</code> index inside class file
-     *        | integer 1   | holds <code>method_info</code> structure difference in bytes after applied patches
-     *        | integer 2   | new <code>max_stack</code> item value of method's <code>Code_attribute</code> structure
-     *        | integer 3   | new <code>max_locals</code> item value of method's <code>Code_attribute</code> structure
-     *        +-------------+ PATCH INFO STRUCTURE DATA
-     *        | integer 2   | holds non-zero mapping index in mapping tables of 1-st applied patch
-     *        | integer 3   | holds index of 1-st patch start inside CodeAttribute's code section of original <code>method_info</code> structure
-     *        +-------------+
-     *        | integer 4   | holds non-zero mapping index in mapping tables of 2-nd applied patch
-     *        | integer 5   | holds index of 2-nd patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
-     *        +-------------+
-     *        |    ...      | etc
-     *        |             |
-     *        +-------------+
-     *        | integer N-1 | mapping index equal to zero indicates premature <code>method patch info</code> structure end
-     *        | integer N   |
-     *        +-------------+
-     *     </pre>
-     * </p>
+     * Appends <code>method patch info</code> to the plan if patches were detected.
      *
      * @param clazz class byte code
      * @param codeAttribute method code_attribute structure
      * @param methodIndex method info index in class file
      * @param mappingFrom byte code to be replaced in method implementation
      * @param mappingTo byte code to be applied in method implementation
-     * @return method patch or <code>null</code> if no patch is applied
+     * @param methodPatches plan to append method patch to
+     * @return <code>method_info</code> structure difference in bytes after applied patches
      */
-    private static int[] getMethodPatch(final byte[] clazz, final CodeAttributeRefs codeAttribute, final int methodIndex,
-                                        final byte[][] mappingFrom, final byte[][] mappingTo) {
+    private static int addMethodPatch(final byte[] clazz, final CodeAttributeRefs codeAttribute, final int methodIndex,
+                                      final byte[][] mappingFrom, final byte[][] mappingTo, final PatchPlan methodPatches) {
         final int codeLength = codeAttribute.getCodeLength();
-        final int offset = codeAttribute.getCodeStartRef();;
+        final int offset = codeAttribute.getCodeStartRef();
         final int limit = offset + codeLength;
-        int[] retVal = null;
+        int header = -1;
+        int diffInBytes = 0;
+        int patchesCount = 0;
         int mappingIndex;
-        int patchIndex = 4;
         int opcode;
 
         for (int i = offset; i <= limit - MINIMUM; i += OpcodeUtils.instructionBytesCount(clazz, i, offset)) {
@@ -297,21 +295,27 @@ final class MethodsPatch {
                     }
                 }
                 if (mappingIndex != 0) {
-                    if (retVal == null) {
-                        retVal = new int[(((limit - i) / MINIMUM) + 2) * 2];
-                        retVal[0] = methodIndex;
+                    if (header == -1) {
+                        header = methodPatches.add(methodIndex);
+                        methodPatches.add(0); // difference in bytes
+                        methodPatches.add(codeAttribute.getMaxStack()); // TODO: detect new max_stack value
+                        methodPatches.add(codeAttribute.getMaxLocals()); // TODO: detect new max_locals value
+                        methodPatches.add(0); // count of patches
                     }
-                    retVal[1] += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
-                    retVal[2] = codeAttribute.getMaxStack(); // TODO: detect new max_stack value
-                    retVal[3] = codeAttribute.getMaxLocals(); // TODO: detect new max_locals value
-                    retVal[patchIndex++] = mappingIndex;
-                    retVal[patchIndex++] = i - offset;
+                    diffInBytes += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
+                    patchesCount++;
+                    methodPatches.add(mappingIndex);
+                    methodPatches.add(i - offset);
                     break;
                 }
             }
         }
+        if (header != -1) {
+            methodPatches.set(header + DIFF_IN_BYTES, diffInBytes);
+            methodPatches.set(header + PATCHES_COUNT, patchesCount);
+        }
 
-        return retVal;
+        return diffInBytes;
     }
 
 }
@@ -141,7 +141,16 @@ final class MethodsRedirectPatch {
         return -1;
     }
 
-    static MethodsRedirectPatch of(final byte[] clazz, final ClassFileRefs cfRefs, final Utf8InfoMapping utf8Mapping) {
+    /**
+     * Computes methods redirect patch.
+     *
+     * @param clazz class byte code
+     * @param cfRefs class file pointers
+     * @param utf8Mapping packages mapping
+     * @param methodPatches plan to encode method patches to
+     * @return methods redirect patch or <code>null</code> if class doesn't call any redirected method
+     */
+    static MethodsRedirectPatch of(final byte[] clazz, final ClassFileRefs cfRefs, final Utf8InfoMapping utf8Mapping, final PatchPlan methodPatches) {
         final int[] matches = getMatches(cfRefs.getConstantPool());
         if (matches == null) return null; // no method matches
         // count method matches
@@ -204,7 +213,7 @@ final class MethodsRedirectPatch {
             System.arraycopy(utilClasses.utilClassesRefactoring.to[i], 0, poolEndPatch, position, utilClasses.utilClassesRefactoring.to[i].length);
             position += utilClasses.utilClassesRefactoring.to[i].length;
         }
-        final MethodsPatch methodsPatch = MethodsPatch.getPatchForMethodRedirects(clazz, cfRefs, methodRefRedirects);
+        final MethodsPatch methodsPatch = MethodsPatch.getPatchForMethodRedirects(clazz, cfRefs, methodRefRedirects, methodPatches);
         return new MethodsRedirectPatch(currentPoolSize, poolEndPatch, methodRefRedirects, methodsPatch, utilClasses);
     }
     /**
@@ -216,34 +225,17 @@ final class MethodsRedirectPatch {
      */
     public static int[] getMatches(final ConstantPoolRefs cpRefs) {
         int[] retVal = null;
-        int classIndex;
-        int classNameIndex;
-        int methodNameAndTypeIndex;
-        int methodNameIndex;
-        int methodDescriptorIndex;
+        int mappingIndex;
 
-        for (int j = 0; j < MethodRedirection.MAPPING.length; j++) {
-            for (int i = 1; i < cpRefs.getSize(); i++) {
-                if (cpRefs.isMethodRef(i)) {
-                    // method reference found
-                    classIndex = cpRefs.getMethodRef_ClassIndex(i);
-                    classNameIndex = cpRefs.getClass_NameIndex(classIndex);
-                    if (cpRefs.utf8EqualsTo(classNameIndex, MethodRedirection.MAPPING[j][0].className)) {
-                        // class we are searching for
-                        methodNameAndTypeIndex = cpRefs.getMethodRef_NameAndTypeIndex(i);
-                        methodNameIndex = cpRefs.getNameAndType_NameIndex(methodNameAndTypeIndex);
-                        if (cpRefs.utf8EqualsTo(methodNameIndex, MethodRedirection.MAPPING[j][0].methodName)) {
-                            // method name we are searching for in this class
-                            methodDescriptorIndex = cpRefs.getNameAndType_DescriptorIndex(methodNameAndTypeIndex);
-                            if (cpRefs.utf8EqualsTo(methodDescriptorIndex, MethodRedirection.MAPPING[j][0].methodDescriptor)) {
-                                // exact className, methodName & methodDescriptor match
-                                if (retVal == null) {
-                                    retVal = new int[MethodRedirection.MAPPING.length];
-                                }
-                                retVal[j] = i;
-                            }
-                        }
+        for (int i = 1; i < cpRefs.getSize(); i++) {
+            if (cpRefs.isMethodRef(i)) {
+                // method reference found, exact className, methodName & methodDescriptor match
+                mappingIndex = MethodRedirection.INDEX.indexOf(cpRefs, i);
+                if (mappingIndex != -1) {
+                    if (retVal == null) {
+                        retVal = new int[MethodRedirection.MAPPING.length];
                     }
+                    retVal[mappingIndex] = i;
                 }
             }
         }
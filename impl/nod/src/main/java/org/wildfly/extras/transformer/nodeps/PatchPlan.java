@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.util.Arrays;
+
+/**
+ * Compact patch plan encoding. All patches of a plan are encoded in single growable <code>int</code> buffer
+ * so planning patches of a class allocates at most when the buffer needs to grow.
+ * See {@link MethodsPatch} for plan structure.
+ * Instances of this class are not thread safe.
+ */
+final class PatchPlan {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private int[] data;
+    private int size;
+
+    PatchPlan() {
+        data = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends value to the plan.
+     *
+     * @param value value to append
+     * @return value index
+     */
+    int add(final int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size] = value;
+        return size++;
+    }
+
+    int get(final int index) {
+        return data[index];
+    }
+
+    void set(final int index, final int value) {
+        data[index] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values, retains allocated buffer.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Releases allocated buffer if it grew over given capacity.
+     *
+     * @param maxCapacity max retained capacity
+     */
+    void trim(final int maxCapacity) {
+        size = 0;
+        if (data.length > maxCapacity) {
+            data = new int[INITIAL_CAPACITY];
+        }
+    }
+
+}
@@ -15,23 +15,25 @@
  */
 package org.wildfly.extras.transformer.nodeps;
 
-import static java.lang.System.arraycopy;
 import static java.lang.Thread.currentThread;
 
-import java.io.File;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.wildfly.extras.transformer.CompiledMapping;
 import org.wildfly.extras.transformer.ResourceTransformer;
+import org.wildfly.extras.transformer.TransformerEvents;
+import org.wildfly.extras.transformer.TransformerMetrics;
 
 /**
  * Class file transformer.
- * Instances of this class are thread safe.
+ * Can be used concurrently by multiple threads as instances of this class are thread safe.
+ * Every utility class is generated exactly once per instance and then returned with every class depending on it.
  *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
@@ -43,18 +45,37 @@ final class ResourceTransformerImpl extends ResourceTransformer {
     private static final String TLD_SUFFIX = ".tld";
     private static final String JSP_SUFFIX = ".jsp";
     private static final String META_INF_SERVICES_PREFIX = "META-INF/services/";
-    private static final String OUR_PACKAGE;
+    private static final String APPLY_PATCHES_OPERATION = "applyPatches";
+    private static final String GENERATE_UTILITY_CLASS_OPERATION = "generateUtilityClass";
+    private static final Map<String, String> TEXT_FILE_REPLACEMENTS = Collections.singletonMap("javax.", "jakarta.");
+    private static final byte[] OUR_PACKAGE;
 
     static {
         final String ourClass = ResourceTransformerImpl.class.getName().replace(".", "/");
-        OUR_PACKAGE = ourClass.substring(0, ourClass.lastIndexOf('/') + 1);
+        OUR_PACKAGE = ClassFileUtils.stringToUtf8(ourClass.substring(0, ourClass.lastIndexOf('/') + 1));
     }
 
     final Utf8InfoMapping utf8Mapping;
-    private final Set<String> generatedClasses = new HashSet<>();
+    private final UtilityClassTemplates utilityClassTemplates;
+    /**
+     * Generated utility classes keyed by their resource names. Every utility class is generated by the first thread
+     * registering its generation task, other threads needing the same utility class wait for the task to complete.
+     */
+    private final ConcurrentMap<String, FutureTask<Resource>> generatedClasses = new ConcurrentHashMap<>();
 
-    ResourceTransformerImpl(final File configsDir, final boolean verbose, final boolean invert) throws IOException {
-        super(configsDir, verbose, invert);
+    ResourceTransformerImpl(final CompiledMapping mapping, final boolean verbose) {
+        this(mapping, verbose, null);
+    }
+
+    ResourceTransformerImpl(final CompiledMapping mapping, final boolean verbose, final TransformerMetrics metrics) {
+        super(mapping, verbose, metrics);
+        this.utf8Mapping = mapping.getCompiledForm(Utf8InfoMapping.class, ResourceTransformerImpl::compileMapping);
+        this.utilityClassTemplates = mapping.getCompiledForm(UtilityClassTemplates.class, m -> new UtilityClassTemplates(utf8Mapping));
+    }
+
+    private static Utf8InfoMapping compileMapping(final CompiledMapping mapping) {
+        final Map<String, String> mappingWithSeps = mapping.getMappingWithSeps();
+        final Map<String, String> mappingWithDots = mapping.getMappingWithDots();
         final int arraySize = mappingWithSeps.size() + mappingWithDots.size() + 1;
         final byte[][] mappingFrom = new byte[arraySize][];
         final byte[][] mappingTo = new byte[arraySize][];
@@ -76,11 +97,10 @@ final class ResourceTransformerImpl extends ResourceTransformer {
             }
             i++;
         }
-        if (invert) {
-            this.utf8Mapping = new Utf8InfoMapping(mappingTo, mappingFrom, minimum);
-
+        if (mapping.isInvert()) {
+            return new Utf8InfoMapping(mappingTo, mappingFrom, minimum);
         } else {
-            this.utf8Mapping = new Utf8InfoMapping(mappingFrom, mappingTo, minimum);
+            return new Utf8InfoMapping(mappingFrom, mappingTo, minimum);
         }
     }
 
@@ -91,6 +111,9 @@ final class ResourceTransformerImpl extends ResourceTransformer {
         String newResourceName = replacePackageName(oldResourceName, false);
         if (oldResourceName.endsWith(CLASS_SUFFIX)) {
             retVal = transform(r.getData(), utf8Mapping, newResourceName);
+            if (metrics != null) {
+                metrics.classFile(retVal != null);
+            }
         } else if (oldResourceName.endsWith(XML_SUFFIX)) {
             retVal = new Resource[]{new Resource(newResourceName, textFile(r.getData()))};
         } else if (oldResourceName.endsWith(TLD_SUFFIX)) {
@@ -108,6 +131,18 @@ final class ResourceTransformerImpl extends ResourceTransformer {
         return retVal == null ? EMPTY_ARRAY : retVal;
     }
 
+    @Override
+    protected StreamedResource transformStreamed(final String name) {
+        if (name.endsWith(CLASS_SUFFIX)) {
+            return null; // class files have to be parsed
+        } else if (name.endsWith(XML_SUFFIX) || name.endsWith(TLD_SUFFIX) || name.endsWith(JSP_SUFFIX)) {
+            return new StreamedResource(replacePackageName(name, false), TEXT_FILE_REPLACEMENTS);
+        } else if (name.startsWith(META_INF_SERVICES_PREFIX)) {
+            return new StreamedResource(replacePackageName(name, true));
+        }
+        return new StreamedResource(replacePackageName(name, false));
+    }
+
     private String replacePackageName(final String resourceName, final boolean dotFormat) {
         int startIndex;
         for (final Map.Entry<String, String> mapping : (dotFormat ? mappingWithDots : mappingWithSeps).entrySet()) {
@@ -129,274 +164,261 @@ final class ResourceTransformerImpl extends ResourceTransformer {
     }
 
     private Resource[] transform(final byte[] clazz, final Utf8InfoMapping utf8Mapping, final String newResourceName) {
-        final ClassFileRefs cfRefs = ClassFileRefs.of(clazz);
-        final ConstantPoolRefs cpRefs = cfRefs.getConstantPool();
-        final String transformedClassName = cfRefs.getThisClassAsString();
-        int diffInBytes = 0;
-
-        final Utf8ItemsPatch utf8ItemsPatch = Utf8ItemsPatch.of(clazz, cpRefs, utf8Mapping);
-        if (utf8ItemsPatch != null) {
-            diffInBytes += utf8ItemsPatch.diffInBytes;
+        if (!ClassFileUtils.mayNeedPatching(clazz, utf8Mapping)) {
+            return null; // fast path - no constant pool item needs to be patched
         }
-        MethodsRedirectPatch methodsRedirectPatch = null;
-        if (!transformedClassName.startsWith(OUR_PACKAGE)) {
-            methodsRedirectPatch = MethodsRedirectPatch.of(clazz, cfRefs, utf8Mapping);
-            if (methodsRedirectPatch != null) {
-                diffInBytes += methodsRedirectPatch.diffInBytes;
-            }
+        final ClassFileArena arena = ClassFileArena.acquire();
+        try {
+            return transform(clazz, utf8Mapping, newResourceName, arena);
+        } finally {
+            arena.release();
         }
+    }
 
-        if (diffInBytes > 0 && Integer.MAX_VALUE - diffInBytes < clazz.length) {
-            throw new UnsupportedOperationException("Couldn't patch class file. The transformed class file would exceed max allowed size " + Integer.MAX_VALUE + " bytes");
+    private Resource[] transform(final byte[] clazz, final Utf8InfoMapping utf8Mapping, final String newResourceName, final ClassFileArena arena) {
+        final ClassFileRefs cfRefs = arena.classFileRefs.init(clazz);
+        final ConstantPoolRefs cpRefs = cfRefs.getConstantPool();
+        MethodsRedirectPatch methodsRedirectPatch = null;
+        if (!cpRefs.utf8StartsWith(cpRefs.getClass_NameIndex(cfRefs.getThisClassIndex()), OUR_PACKAGE)) {
+            methodsRedirectPatch = MethodsRedirectPatch.of(clazz, cfRefs, utf8Mapping, arena.methodPatches);
         }
-
-        final boolean patchesNotAvailable = utf8ItemsPatch == null && methodsRedirectPatch == null;
-        if (patchesNotAvailable) {
-            return null;
+        final byte[] patchedClass = applyPatches(clazz, utf8Mapping, cfRefs, methodsRedirectPatch, null, arena.rewriter);
+        if (patchedClass == null) {
+            return null; // no patch was applicable
         }
-        // patches are available, patch the class
-        final byte[] patchedClass = applyPatches(clazz, utf8Mapping, clazz.length + diffInBytes, cfRefs, utf8ItemsPatch, methodsRedirectPatch, null);
         final Resource patchedClassResource = new Resource(newResourceName, patchedClass);
         final MethodsRedirectPatch.UtilityClasses utilClasses = methodsRedirectPatch != null ? methodsRedirectPatch.utilClasses : null;
-        final Set<Resource> generatedUtilClasses = new HashSet<>();
-        if (utilClasses != null) {
-            final byte[][] oldClassNames = utilClasses.utilClassesRefactoring.from;
-            final byte[][] newClassNames = utilClasses.utilClassesRefactoring.to;
-            String oldClassName, newClassName;
-            byte[] oldUtilClassBytes;
-            byte[] newUtilClassBytes;
-            for (int i = 1; i < oldClassNames.length; i++) {
-                oldClassName = ClassFileUtils.utf8ToString(oldClassNames[i], 0, oldClassNames[i].length) + ".class";
-                newClassName = ClassFileUtils.utf8ToString(newClassNames[i], 0, newClassNames[i].length) + ".class";
-                if (!generatedClasses.contains(newClassName)) {
-                    generatedClasses.add(newClassName);
-                    oldUtilClassBytes = getResourceBytes(oldClassName);
-                    newUtilClassBytes = transformUtilityClass(oldUtilClassBytes, utilClasses.utilClassesRefactoring, utf8Mapping);
-                    generatedUtilClasses.add(new Resource(newClassName, newUtilClassBytes));
-                }
-            }
+        if (utilClasses == null) {
+            return new Resource[] {patchedClassResource};
         }
-        final Resource[] retVal = new Resource[generatedUtilClasses.size() + 1];
+        final byte[][] oldClassNames = utilClasses.utilClassesRefactoring.from;
+        final byte[][] newClassNames = utilClasses.utilClassesRefactoring.to;
+        final Resource[] retVal = new Resource[oldClassNames.length];
         retVal[0] = patchedClassResource;
-        int i = 1;
-        for (final Resource generatedClass : generatedUtilClasses) {
-            retVal[i++] = generatedClass;
+        for (int i = 1; i < oldClassNames.length; i++) {
+            retVal[i] = getUtilityClass(oldClassNames[i], newClassNames[i], utilClasses.utilClassesRefactoring, arena.rewriter);
         }
         return retVal;
     }
 
-    private byte[] transformUtilityClass(final byte[] clazz, final Utf8InfoMapping renameMapping, final Utf8InfoMapping mappingRules) {
-        final ClassFileRefs cfRefs = ClassFileRefs.of(clazz);
-        final ConstantPoolRefs cpRefs = cfRefs.getConstantPool();
-        int diffInBytes = 0;
-
-        // rename utility class
-        final Utf8ItemsPatch renamePatch = Utf8ItemsPatch.of(clazz, cpRefs, renameMapping);
-        diffInBytes += renamePatch.diffInBytes;
-        // add mapping rules to constant pool and modify its static initializer to apply these rules
-        final AddMappingPatch applyMappingsPatch = AddMappingPatch.of(clazz, cfRefs, mappingRules); // TODO: rename AddMappingPatch to ApplyMappingsPatch
-        diffInBytes += applyMappingsPatch.diffInBytes;
-        return applyPatches(clazz, renameMapping, clazz.length + diffInBytes, cfRefs, renamePatch, null, applyMappingsPatch);
-    }
-
-    private static byte[] toByteArray(final InputStream is) {
+    private Resource getUtilityClass(final byte[] oldClassNameBytes, final byte[] newClassNameBytes, final Utf8InfoMapping renameMapping,
+                                     final ClassFileRewriter rewriter) {
+        final String newClassName = ClassFileUtils.utf8ToString(newClassNameBytes, 0, newClassNameBytes.length) + CLASS_SUFFIX;
+        FutureTask<Resource> generatedClass = generatedClasses.get(newClassName);
+        if (generatedClass == null) {
+            final String oldClassName = ClassFileUtils.utf8ToString(oldClassNameBytes, 0, oldClassNameBytes.length) + CLASS_SUFFIX;
+            final FutureTask<Resource> generation = new FutureTask<>(() -> generateUtilityClass(oldClassName, newClassName, renameMapping, rewriter));
+            generatedClass = generatedClasses.putIfAbsent(newClassName, generation);
+            if (generatedClass == null) {
+                // generated by current thread, no lock is held so only threads needing the same utility class wait for it
+                generatedClass = generation;
+                generation.run();
+            }
+        }
+        boolean interrupted = false;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int c = -1;
-            while ((c = is.read()) != -1) {
-                baos.write(c);
+            while (true) {
+                try {
+                    return generatedClass.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
             }
-            return baos.toByteArray();
-        } catch (Throwable t) {
-            t.printStackTrace(System.err);
-            return null;
+        } catch (final ExecutionException e) {
+            // failed generation is not memoized, next class depending on this utility class retries it
+            generatedClasses.remove(newClassName, generatedClass);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Resource generateUtilityClass(final String oldClassName, final String newClassName, final Utf8InfoMapping renameMapping,
+                                          final ClassFileRewriter rewriter) {
+        final Object event = TransformerEvents.beginOperation();
+        final byte[] newUtilClassBytes = transformUtilityClass(utilityClassTemplates.get(oldClassName), renameMapping, rewriter);
+        if (event != null) {
+            TransformerEvents.endOperation(event, GENERATE_UTILITY_CLASS_OPERATION,
+                    newClassName.substring(0, newClassName.length() - CLASS_SUFFIX.length()), newUtilClassBytes.length);
         }
+        return new Resource(newClassName, newUtilClassBytes);
     }
 
-    private static byte[] getResourceBytes(final String resourceName) {
-        return toByteArray(ResourceTransformerImpl.class.getClassLoader().getResourceAsStream(resourceName));
+    private byte[] transformUtilityClass(final UtilityClassTemplates.Template template, final Utf8InfoMapping renameMapping,
+                                         final ClassFileRewriter rewriter) {
+        // rename utility class while rewriting, apply precomputed patch adding mapping rules to it
+        return applyPatches(template.clazz, renameMapping, template.cfRefs, null, template.applyMappingsPatch, rewriter);
     }
 
     /**
-     * Returns modified class byte code with patches applied.
+     * Returns modified class byte code with patches applied. Patches of <code>CONSTANT_Utf8_info</code> items
+     * are discovered while rewriting the class, other patches are precomputed. Class byte code is rewritten
+     * in single pass and new class byte code is materialized only once.
      *
      * @param oldClass original class byte code
-     * @param newClassSize count of bytes of new class byte code
+     * @param utf8Mapping mapping to apply to <code>CONSTANT_Utf8_info</code> items
      * @param oldClassRefs pointers to old class items
-     * @param utf8ItemsPatch utf8 items patches to apply
      * @param methodsRedirectPatch add items patch to apply
-     * @return modified class byte code with patches applied
+     * @param applyMappingsPatch add mapping patch to apply
+     * @param newClass rewriter to record new class byte code with
+     * @return modified class byte code with patches applied or <code>null</code> if there was no patch applicable
      */
-    private byte[] applyPatches(final byte[] oldClass, final Utf8InfoMapping utf8Mapping, final int newClassSize, final ClassFileRefs oldClassRefs,
-            final Utf8ItemsPatch utf8ItemsPatch, final MethodsRedirectPatch methodsRedirectPatch, final AddMappingPatch applyMappingsPatch) {
+    private byte[] applyPatches(final byte[] oldClass, final Utf8InfoMapping utf8Mapping, final ClassFileRefs oldClassRefs,
+            final MethodsRedirectPatch methodsRedirectPatch, final AddMappingPatch applyMappingsPatch, final ClassFileRewriter newClass) {
+        final Object event = TransformerEvents.beginOperation();
         if (verbose) {
             synchronized (System.out) {
                 System.out.println("[" + currentThread() + "] Patching class " + oldClassRefs.getThisClassAsString() + " - START");
             }
         }
+        byte[] retVal = null;
+        try {
+            retVal = rewriteClass(oldClass, utf8Mapping, oldClassRefs, methodsRedirectPatch, applyMappingsPatch, newClass);
+            return retVal;
+        } finally {
+            if (verbose) {
+                synchronized (System.out) {
+                    System.out.println("[" + currentThread() + "] Patching class " + oldClassRefs.getThisClassAsString() + " - END");
+                }
+            }
+            if (event != null) {
+                TransformerEvents.endOperation(event, APPLY_PATCHES_OPERATION, oldClassRefs.getThisClassAsString(), retVal != null ? retVal.length : 0);
+            }
+        }
+    }
+
+    private byte[] rewriteClass(final byte[] oldClass, final Utf8InfoMapping utf8Mapping, final ClassFileRefs oldClassRefs,
+            final MethodsRedirectPatch methodsRedirectPatch, final AddMappingPatch applyMappingsPatch, final ClassFileRewriter newClass) {
         // TODO: revisit this method is it possible to merge via inheritance somehow MethodsRedirectPatch & AddMappingPatch ???
-        final byte[] newClass = new byte[newClassSize];
-        int oldClassOffset = 0, newClassOffset = 0;
-        int length, mappingIndex, oldUtf8ItemBytesSectionOffset, oldUtf8ItemLength, patchOffset;
-        int debugOldUtf8ItemOffset = -1, debugNewUtf8ItemOffset = -1;
-        int debugOldUtf8ItemLength = -1, debugNewUtf8ItemLength = -1;
+        newClass.reset(oldClass);
+        final ConstantPoolRefs cpRefs = oldClassRefs.getConstantPool();
+        int mappingIndex, utf8ItemBytesSectionOffset, utf8ItemLimit, utf8ItemLengthRef, utf8ItemDiff, patchOffset;
+        long match;
+        int debugSegment = -1;
+        byte[] debugBytes;
 
         // First copy magic, version and constant pool size
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, oldClassRefs.getConstantPool().getItemsStartRef());
-        oldClassOffset = newClassOffset = oldClassRefs.getConstantPool().getItemsStartRef();
+        newClass.copy(cpRefs.getSizeStartRef());
         if (methodsRedirectPatch != null) {
             // patching constant pool size
-            ClassFileUtils.writeUnsignedShort(newClass, oldClassRefs.getConstantPool().getSizeStartRef(), methodsRedirectPatch.currentPoolSize);
+            newClass.writeUnsignedShort(methodsRedirectPatch.currentPoolSize);
+            newClass.skip(2);
         } else if (applyMappingsPatch != null) {
             // patching constant pool size
-            ClassFileUtils.writeUnsignedShort(newClass, oldClassRefs.getConstantPool().getSizeStartRef(), applyMappingsPatch.currentPoolSize);
+            newClass.writeUnsignedShort(applyMappingsPatch.currentPoolSize);
+            newClass.skip(2);
         }
 
-        if (utf8ItemsPatch != null) {
-            for (int[] utf8ItemPatch : utf8ItemsPatch.utf8ItemPatches) {
-                if (utf8ItemPatch == null) {
-                    break;
-                }
-                oldUtf8ItemBytesSectionOffset = oldClassRefs.getConstantPool().getItemRefs()[utf8ItemPatch[0]] + 3;
-                // copy till start of next utf8 item bytes section
-                length = oldUtf8ItemBytesSectionOffset - oldClassOffset;
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                oldClassOffset += length;
-                newClassOffset += length;
-                if (verbose) {
-                    debugOldUtf8ItemOffset = oldClassOffset;
-                    debugNewUtf8ItemOffset = newClassOffset;
-                }
-                // patch utf8 item length
-                oldUtf8ItemLength = ClassFileUtils.readUnsignedShort(oldClass, oldClassOffset - 2);
-                ClassFileUtils.writeUnsignedShort(newClass, newClassOffset - 2, oldUtf8ItemLength + utf8ItemPatch[1]);
-                // apply utf8 info bytes section patches
-                for (int i = 2; i < utf8ItemPatch.length;) {
-                    mappingIndex = utf8ItemPatch[i++];
-                    if (mappingIndex == 0) {
-                        break;
-                    }
-                    patchOffset = utf8ItemPatch[i++];
-                    // copy till begin of patch
-                    length = patchOffset - (oldClassOffset - oldUtf8ItemBytesSectionOffset);
-                    arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                    oldClassOffset += length;
-                    newClassOffset += length;
-                    // apply patch
-                    arraycopy(utf8Mapping.to[mappingIndex], 0, newClass, newClassOffset, utf8Mapping.to[mappingIndex].length);
-                    oldClassOffset += utf8Mapping.from[mappingIndex].length;
-                    newClassOffset += utf8Mapping.to[mappingIndex].length;
+        // patching utf8 items - leftmost longest non overlapping matches
+        for (int cpIndex = 1; cpIndex < cpRefs.getSize(); cpIndex++) {
+            if (!cpRefs.isUtf8(cpIndex)) continue;
+            utf8ItemBytesSectionOffset = cpRefs.getUtf8_BytesRef(cpIndex);
+            utf8ItemLimit = utf8ItemBytesSectionOffset + cpRefs.getUtf8_Length(cpIndex);
+            utf8ItemLengthRef = -1;
+            utf8ItemDiff = 0;
+            patchOffset = utf8ItemBytesSectionOffset;
+            while (utf8ItemLimit - patchOffset >= utf8Mapping.min && (match = utf8Mapping.matcher.find(oldClass, patchOffset, utf8ItemLimit)) != -1) {
+                patchOffset = (int) (match >>> 32);
+                mappingIndex = (int) match;
+                if (utf8ItemLengthRef == -1) {
+                    // copy till utf8 item length, it will be patched once all utf8 info bytes section patches are known
+                    newClass.copy(utf8ItemBytesSectionOffset - 2);
+                    utf8ItemLengthRef = newClass.writeUnsignedShort(0);
+                    newClass.skip(2);
+                    debugSegment = newClass.getSegmentsCount();
                 }
-                // copy remaining class byte code till utf8 item end
-                length = oldUtf8ItemBytesSectionOffset + oldUtf8ItemLength - oldClassOffset;
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                oldClassOffset += length;
-                newClassOffset += length;
-                if (verbose) {
-                    synchronized (System.out) {
-                        System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + utf8ItemPatch[0]);
-                        debugOldUtf8ItemLength = ClassFileUtils.readUnsignedShort(oldClass, debugOldUtf8ItemOffset - 2);
-                        System.out.println("[" + currentThread() + "] old value: " + ClassFileUtils.utf8ToString(oldClass, debugOldUtf8ItemOffset, debugOldUtf8ItemOffset + debugOldUtf8ItemLength));
-                        debugNewUtf8ItemLength = ClassFileUtils.readUnsignedShort(newClass, debugNewUtf8ItemOffset - 2);
-                        System.out.println("[" + currentThread() + "] new value: " + ClassFileUtils.utf8ToString(newClass, debugNewUtf8ItemOffset, debugNewUtf8ItemOffset + debugNewUtf8ItemLength));
-                    }
+                // copy till begin of patch and apply patch
+                newClass.copy(patchOffset);
+                newClass.write(utf8Mapping.to[mappingIndex]);
+                newClass.skip(utf8Mapping.from[mappingIndex].length);
+                utf8ItemDiff += utf8Mapping.to[mappingIndex].length - utf8Mapping.from[mappingIndex].length;
+                patchOffset += utf8Mapping.from[mappingIndex].length;
+            }
+            if (utf8ItemLengthRef == -1) continue;
+            // patch utf8 item length
+            newClass.setUnsignedShort(utf8ItemLengthRef, utf8ItemLimit - utf8ItemBytesSectionOffset + utf8ItemDiff);
+            if (verbose) {
+                newClass.copy(utf8ItemLimit);
+                debugBytes = newClass.toByteArray(debugSegment);
+                synchronized (System.out) {
+                    System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + cpIndex);
+                    System.out.println("[" + currentThread() + "] old value: " + ClassFileUtils.utf8ToString(oldClass, utf8ItemBytesSectionOffset, utf8ItemLimit));
+                    System.out.println("[" + currentThread() + "] new value: " + ClassFileUtils.utf8ToString(debugBytes, 0, debugBytes.length));
                 }
             }
         }
         // copy remaining pool items
-        length = oldClassRefs.getConstantPool().getItemsEndRef() - oldClassOffset;
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-        oldClassOffset += length;
-        newClassOffset += length;
+        newClass.copy(cpRefs.getItemsEndRef());
 
         // add new pool items if available
         if (methodsRedirectPatch != null) {
-            arraycopy(methodsRedirectPatch.poolEndPatch, 0, newClass, newClassOffset, methodsRedirectPatch.poolEndPatch.length);
-            newClassOffset += methodsRedirectPatch.poolEndPatch.length;
+            newClass.write(methodsRedirectPatch.poolEndPatch);
         } else if (applyMappingsPatch != null) {
-            arraycopy(applyMappingsPatch.poolEndPatch, 0, newClass, newClassOffset, applyMappingsPatch.poolEndPatch.length);
-            newClassOffset += applyMappingsPatch.poolEndPatch.length;
+            newClass.write(applyMappingsPatch.poolEndPatch);
         }
 
         // patching methods
-        int oldMethodInfoCodeAttributeCodeOffset, oldCodeAttributeLength, oldCodeAttributeCodeLength;
+        int codeAttributeCodeOffset, oldCodeAttributeLength, oldCodeAttributeCodeLength;
         MethodInfoRefs methodInfo;
         CodeAttributeRefs codeAttribute;
-        int debugOldCodeAttributeCodeOffset = -1, debugNewCodeAttributeCodeOffset = -1;
-        int debugOldCodeAttributeCodeLength = -1, debugNewCodeAttributeCodeLength = -1;
         MethodsPatch methodsPatch = methodsRedirectPatch != null ? methodsRedirectPatch.methodsPatch : null; // either first patch
         methodsPatch = methodsPatch == null ? (applyMappingsPatch != null ? applyMappingsPatch.methodsPatch : null) : null; // or second patch
         if (methodsPatch != null) {
-            for (int[] methodPatch : methodsPatch.methodPatches) {
-                if (methodPatch == null) {
-                    break;
-                }
-                methodInfo = oldClassRefs.getMethod(methodPatch[0]);
+            final PatchPlan methodPatches = methodsPatch.methodPatches;
+            int methodPatch, methodPatchEnd, methodPatchDiff;
+            for (methodPatch = 0; methodPatch < methodPatches.size(); methodPatch = methodPatchEnd) {
+                methodPatchEnd = methodPatch + MethodsPatch.HEADER_SIZE + 2 * methodPatches.get(methodPatch + MethodsPatch.PATCHES_COUNT);
+                methodPatchDiff = methodPatches.get(methodPatch + MethodsPatch.DIFF_IN_BYTES);
+                methodInfo = oldClassRefs.getMethod(methodPatches.get(methodPatch + MethodsPatch.METHOD_INDEX));
                 codeAttribute = methodInfo.getCodeAttribute();
-                oldMethodInfoCodeAttributeCodeOffset = codeAttribute.getCodeStartRef();
-                // copy till start of next code_attribute code section
-                length = oldMethodInfoCodeAttributeCodeOffset - oldClassOffset;
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                oldClassOffset += length;
-                newClassOffset += length;
-                if (verbose) {
-                    debugOldCodeAttributeCodeOffset = oldClassOffset;
-                    debugNewCodeAttributeCodeOffset = newClassOffset;
-                }
+                codeAttributeCodeOffset = codeAttribute.getCodeStartRef();
                 // patch code attribute length
-                oldCodeAttributeLength = ClassFileUtils.readUnsignedInt(oldClass, oldClassOffset - 12);
-                ClassFileUtils.writeUnsignedInt(newClass, newClassOffset - 12, oldCodeAttributeLength + methodPatch[1]);
-                // patch code attribute code length
-                oldCodeAttributeCodeLength = ClassFileUtils.readUnsignedInt(oldClass, oldClassOffset - 4);
-                ClassFileUtils.writeUnsignedInt(newClass, newClassOffset - 4, oldCodeAttributeCodeLength + methodPatch[1]);
+                newClass.copy(codeAttributeCodeOffset - 12);
+                oldCodeAttributeLength = ClassFileUtils.readUnsignedInt(oldClass, codeAttributeCodeOffset - 12);
+                newClass.writeUnsignedInt(oldCodeAttributeLength + methodPatchDiff);
+                newClass.skip(4);
                 // TODO: patch here max_stack & max_locals
+                // patch code attribute code length
+                newClass.copy(codeAttributeCodeOffset - 4);
+                oldCodeAttributeCodeLength = ClassFileUtils.readUnsignedInt(oldClass, codeAttributeCodeOffset - 4);
+                newClass.writeUnsignedInt(oldCodeAttributeCodeLength + methodPatchDiff);
+                newClass.skip(4);
+                debugSegment = newClass.getSegmentsCount();
                 // apply code attribute code section patches
-                for (int i = 4; i < methodPatch.length;) {
-                    mappingIndex = methodPatch[i++];
-                    if (mappingIndex == 0) {
-                        break;
-                    }
-                    patchOffset = methodPatch[i++];
-                    // copy till begin of patch
-                    length = patchOffset - (oldClassOffset - oldMethodInfoCodeAttributeCodeOffset);
-                    arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                    oldClassOffset += length;
-                    newClassOffset += length;
-                    // apply patch
-                    arraycopy(methodsPatch.mappingTo[mappingIndex], 0, newClass, newClassOffset, methodsPatch.mappingTo[mappingIndex].length);
-                    oldClassOffset += methodsPatch.mappingFrom[mappingIndex].length;
-                    newClassOffset += methodsPatch.mappingTo[mappingIndex].length;
+                for (int i = methodPatch + MethodsPatch.HEADER_SIZE; i < methodPatchEnd; i += 2) {
+                    mappingIndex = methodPatches.get(i);
+                    patchOffset = methodPatches.get(i + 1);
+                    // copy till begin of patch and apply patch
+                    newClass.copy(codeAttributeCodeOffset + patchOffset);
+                    newClass.write(methodsPatch.mappingTo[mappingIndex]);
+                    newClass.skip(methodsPatch.mappingFrom[mappingIndex].length);
                 }
-                // copy remaining class byte code till code attribute end
-                length = oldMethodInfoCodeAttributeCodeOffset + oldCodeAttributeLength - oldClassOffset;
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                oldClassOffset += length;
-                newClassOffset += length;
                 if (verbose) {
+                    newClass.copy(codeAttributeCodeOffset + oldCodeAttributeCodeLength);
+                    debugBytes = newClass.toByteArray(debugSegment);
                     synchronized (System.out) {
-                        System.out.println("[" + currentThread() + "] Patching method implementation '" + oldClassRefs.getConstantPool().getUtf8AsString(methodInfo.getNameIndex()) + "' on position: " + methodPatch[0]);
-                        debugOldCodeAttributeCodeLength = ClassFileUtils.readUnsignedInt(oldClass, debugOldCodeAttributeCodeOffset - 4);
+                        System.out.println("[" + currentThread() + "] Patching method implementation '" + cpRefs.getUtf8AsString(methodInfo.getNameIndex()) + "' on position: " + methodPatches.get(methodPatch + MethodsPatch.METHOD_INDEX));
                         System.out.print("[" + currentThread() + "] Old implementation bytecode: ");
-                        OpcodeUtils.printMethodByteCode(oldClass, debugOldCodeAttributeCodeOffset, debugOldCodeAttributeCodeLength);
+                        OpcodeUtils.printMethodByteCode(oldClass, codeAttributeCodeOffset, oldCodeAttributeCodeLength);
                         System.out.println();
-                        debugNewCodeAttributeCodeLength = ClassFileUtils.readUnsignedInt(newClass, debugNewCodeAttributeCodeOffset - 4);
                         System.out.print("[" + currentThread() + "] New implementation bytecode: ");
-                        OpcodeUtils.printMethodByteCode(newClass, debugNewCodeAttributeCodeOffset, debugNewCodeAttributeCodeLength);
+                        OpcodeUtils.printMethodByteCode(debugBytes, 0, debugBytes.length);
                         System.out.println();
                     }
                 }
             }
         }
 
-        // copy remaining class byte code
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, oldClass.length - oldClassOffset);
-
-        if (verbose) {
-            synchronized (System.out) {
-                System.out.println("[" + currentThread() + "] Patching class " + oldClassRefs.getThisClassAsString() + " - END");
-            }
+        if (!newClass.isModified()) {
+            return null;
         }
-        return newClass;
+        // copy remaining class byte code
+        return newClass.toByteArray();
     }
 
 }
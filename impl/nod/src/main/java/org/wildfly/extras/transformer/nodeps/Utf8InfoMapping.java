@@ -33,11 +33,17 @@ final class Utf8InfoMapping {
      */
     final int min;
 
+    /**
+     * Precompiled automaton searching for <code>from</code> strings.
+     */
+    final Utf8Matcher matcher;
+
     Utf8InfoMapping(final byte[][] from, final byte[][] to, final int min) {
         if (from[0] != null || to[0] != null) throw new IllegalArgumentException();
         this.from = from;
         this.to = to;
         this.min = min;
+        this.matcher = new Utf8Matcher(from);
     }
 
 }
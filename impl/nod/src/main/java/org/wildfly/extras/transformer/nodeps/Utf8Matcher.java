@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.util.Arrays;
+
+/**
+ * Aho-Corasick automaton searching for all {@link Utf8InfoMapping#from} patterns in a single pass.
+ * The automaton is compiled to deterministic transition table over byte classes
+ * (bytes not present in any pattern share single class) so every input byte costs one table lookup.
+ * Instances of this class are immutable and thus thread safe.
+ */
+final class Utf8Matcher {
+
+    private static final int ROOT = 0;
+    /**
+     * Maps input byte to its byte class.
+     */
+    private final int[] byteClasses = new int[256];
+    private final int classesCount;
+    /**
+     * Transition table, next state is <code>transitions[state * classesCount + byteClass]</code>.
+     */
+    private final int[] transitions;
+    /**
+     * Length of the longest pattern prefix recognized by given state.
+     */
+    private final int[] depths;
+    /**
+     * Index of the longest pattern ending in given state or <code>zero</code> if there is no such pattern.
+     */
+    private final int[] matches;
+    private final int[] patternLengths;
+
+    Utf8Matcher(final byte[][] patterns) {
+        // compute byte classes
+        int classes = 1;
+        int patternsSize = 0;
+        for (int i = 1; i < patterns.length; i++) {
+            for (final byte b : patterns[i]) {
+                if (byteClasses[b & 0xFF] == 0) {
+                    byteClasses[b & 0xFF] = classes++;
+                }
+            }
+            patternsSize += patterns[i].length;
+        }
+        classesCount = classes;
+        // build trie
+        final int maxStates = patternsSize + 1;
+        int[] trie = new int[maxStates * classesCount];
+        Arrays.fill(trie, -1);
+        int[] depth = new int[maxStates];
+        int[] match = new int[maxStates];
+        patternLengths = new int[patterns.length];
+        int statesCount = 1;
+        int state, next;
+        for (int i = 1; i < patterns.length; i++) {
+            patternLengths[i] = patterns[i].length;
+            state = ROOT;
+            for (final byte b : patterns[i]) {
+                next = trie[state * classesCount + byteClasses[b & 0xFF]];
+                if (next == -1) {
+                    next = statesCount++;
+                    depth[next] = depth[state] + 1;
+                    trie[state * classesCount + byteClasses[b & 0xFF]] = next;
+                }
+                state = next;
+            }
+            if (match[state] == 0) {
+                match[state] = i; // identical patterns - the first one wins
+            }
+        }
+        // compute failure links in breadth first order and convert trie to deterministic automaton
+        final int[] fail = new int[statesCount];
+        final int[] queue = new int[statesCount];
+        int head = 0, tail = 0;
+        for (int c = 0; c < classesCount; c++) {
+            next = trie[ROOT * classesCount + c];
+            if (next == -1) {
+                trie[ROOT * classesCount + c] = ROOT;
+            } else {
+                fail[next] = ROOT;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            state = queue[head++];
+            if (match[state] == 0) {
+                match[state] = match[fail[state]];
+            }
+            for (int c = 0; c < classesCount; c++) {
+                next = trie[state * classesCount + c];
+                if (next == -1) {
+                    trie[state * classesCount + c] = trie[fail[state] * classesCount + c];
+                } else {
+                    fail[next] = trie[fail[state] * classesCount + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        transitions = Arrays.copyOf(trie, statesCount * classesCount);
+        depths = Arrays.copyOf(depth, statesCount);
+        matches = Arrays.copyOf(match, statesCount);
+    }
+
+    /**
+     * Finds leftmost longest pattern match inside given data range.
+     *
+     * @param data data to search in
+     * @param offset search start index (inclusive)
+     * @param limit search end index (exclusive)
+     * @return either <code>-1</code> if there is no match or match start index in upper 32 bits and non-zero
+     * pattern index in lower 32 bits
+     */
+    long find(final byte[] data, final int offset, final int limit) {
+        int state = ROOT;
+        int matchStart = -1;
+        int matchIndex = 0;
+        int patternIndex, start;
+        for (int i = offset; i < limit; i++) {
+            state = transitions[state * classesCount + byteClasses[data[i] & 0xFF]];
+            patternIndex = matches[state];
+            if (patternIndex != 0) {
+                start = i + 1 - patternLengths[patternIndex];
+                if (matchIndex == 0 || start < matchStart || (start == matchStart && patternLengths[patternIndex] > patternLengths[matchIndex])) {
+                    matchStart = start;
+                    matchIndex = patternIndex;
+                }
+            }
+            if (matchIndex != 0 && i + 1 - depths[state] > matchStart) {
+                // no longer match starting at or before current match start is possible
+                break;
+            }
+        }
+        return matchIndex == 0 ? -1 : ((long) matchStart << 32) | matchIndex;
+    }
+
+}
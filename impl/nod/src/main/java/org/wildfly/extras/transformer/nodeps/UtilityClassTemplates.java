@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of utility class templates (see {@link MethodRedirection#MAPPING}) prepared for single packages mapping.
+ * Every template is loaded, parsed and its mapping rules patch is computed only once so generating a utility class
+ * means only to rename the template while rewriting it.
+ * Instances of this class are thread safe.
+ */
+final class UtilityClassTemplates {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private final Utf8InfoMapping mappingRules;
+    private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    UtilityClassTemplates(final Utf8InfoMapping mappingRules) {
+        this.mappingRules = mappingRules;
+    }
+
+    /**
+     * Gets utility class template.
+     *
+     * @param resourceName template class file resource name
+     * @return utility class template
+     * @throws IllegalStateException if template class file couldn't be loaded
+     */
+    Template get(final String resourceName) {
+        Template retVal = templates.get(resourceName);
+        if (retVal == null) {
+            retVal = templates.computeIfAbsent(resourceName, this::load);
+        }
+        return retVal;
+    }
+
+    private Template load(final String resourceName) {
+        final byte[] clazz = getResourceBytes(resourceName);
+        final ClassFileRefs cfRefs = ClassFileRefs.of(clazz);
+        // add mapping rules to constant pool and modify its static initializer to apply these rules
+        final AddMappingPatch applyMappingsPatch = AddMappingPatch.of(clazz, cfRefs, mappingRules); // TODO: rename AddMappingPatch to ApplyMappingsPatch
+        // methods are parsed lazily - ensure template is never modified after it was published
+        cfRefs.getMethodsCount();
+        return new Template(clazz, cfRefs, applyMappingsPatch);
+    }
+
+    private static byte[] getResourceBytes(final String resourceName) {
+        try (InputStream is = UtilityClassTemplates.class.getClassLoader().getResourceAsStream(resourceName)) {
+            if (is == null) {
+                throw new IllegalStateException("Couldn't find utility class template " + resourceName);
+            }
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't load utility class template " + resourceName, e);
+        }
+    }
+
+    /**
+     * Parsed utility class template with precomputed mapping rules patch.
+     */
+    static final class Template {
+        final byte[] clazz;
+        final ClassFileRefs cfRefs;
+        final AddMappingPatch applyMappingsPatch;
+
+        private Template(final byte[] clazz, final ClassFileRefs cfRefs, final AddMappingPatch applyMappingsPatch) {
+            this.clazz = clazz;
+            this.cfRefs = cfRefs;
+            this.applyMappingsPatch = applyMappingsPatch;
+        }
+    }
+
+}
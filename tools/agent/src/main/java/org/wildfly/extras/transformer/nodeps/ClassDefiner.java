@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Defines generated utility classes in class loader of the class that uses them.
+ * Utility classes are package private siblings of transformed classes thus they have to be defined
+ * in the same class loader and runtime package before transformed class is linked.
+ */
+final class ClassDefiner {
+
+    private final Method defineClass;
+    private final Method findLoadedClass;
+
+    private ClassDefiner(final Method defineClass, final Method findLoadedClass) {
+        this.defineClass = defineClass;
+        this.findLoadedClass = findLoadedClass;
+    }
+
+    /**
+     * Creates class definer. On JDK 9+ package <code>java.lang</code> is opened to the agent module first
+     * so protected <code>ClassLoader</code> methods can be made accessible.
+     *
+     * @param inst instrumentation
+     * @return class definer
+     */
+    static ClassDefiner of(final Instrumentation inst) {
+        try {
+            openJavaLang(inst);
+            final Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class, ProtectionDomain.class);
+            defineClass.setAccessible(true);
+            final Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            findLoadedClass.setAccessible(true);
+            return new ClassDefiner(defineClass, findLoadedClass);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Couldn't access ClassLoader methods", e);
+        }
+    }
+
+    private static void openJavaLang(final Instrumentation inst) throws ReflectiveOperationException {
+        final Method getModule;
+        try {
+            getModule = Class.class.getMethod("getModule");
+        } catch (final NoSuchMethodException ignored) {
+            return; // JDK 8 - no modules
+        }
+        final Object javaBase = getModule.invoke(Object.class);
+        final Object agentModule = getModule.invoke(ClassDefiner.class);
+        final Method redefineModule = Instrumentation.class.getMethod("redefineModule", getModule.getReturnType(), Set.class, Map.class, Map.class, Set.class, Map.class);
+        redefineModule.invoke(inst, javaBase, Collections.emptySet(), Collections.emptyMap(),
+                Collections.singletonMap("java.lang", Collections.singleton(agentModule)), Collections.emptySet(), Collections.emptyMap());
+    }
+
+    /**
+     * Defines class in given class loader.
+     *
+     * @param loader class loader
+     * @param className class name in path separator format
+     * @param clazz class data
+     * @param pd protection domain
+     * @throws LinkageError if class couldn't be defined
+     */
+    void defineClass(final ClassLoader loader, final String className, final byte[] clazz, final ProtectionDomain pd) {
+        try {
+            defineClass.invoke(loader, className.replace('/', '.'), clazz, 0, clazz.length, pd);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+    }
+
+    /**
+     * Checks whether class was already defined by given class loader.
+     *
+     * @param loader class loader
+     * @param className class name in path separator format
+     * @return <code>true</code> if class was defined by given class loader, <code>false</code> otherwise
+     */
+    boolean isDefined(final ClassLoader loader, final String className) {
+        try {
+            return findLoadedClass.invoke(loader, className.replace('/', '.')) != null;
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import static java.lang.Thread.currentThread;
+
+import org.wildfly.extras.transformer.CompiledMapping;
+import org.wildfly.extras.transformer.ResourceTransformer.Resource;
+import org.wildfly.extras.transformer.TransformerEvents;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies {@link ResourceTransformerImpl} to classes as they are being loaded.
+ * Classes without mapped constant pool items are rejected on the fast path without any allocation.
+ * Generated utility classes are defined in the class loader of transformed class.
+ * Instances of this class are thread safe.
+ */
+final class ClassFileTransformerImpl implements ClassFileTransformer {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String TRANSFORMER_PACKAGE = "org/wildfly/extras/transformer/";
+    private final boolean verbose;
+    private final ClassDefiner definer;
+    private final ResourceTransformerImpl transformer;
+    private final Utf8InfoMapping utf8Mapping;
+    /**
+     * Utility classes already defined in (or being defined by) given class loader.
+     * Class loaders are weakly referenced so the agent doesn't prevent their garbage collection.
+     */
+    private final Map<ClassLoader, Set<String>> definedClasses = Collections.synchronizedMap(new WeakHashMap<>());
+
+    ClassFileTransformerImpl(final CompiledMapping mapping, final boolean verbose, final ClassDefiner definer) {
+        this.verbose = verbose;
+        this.definer = definer;
+        this.transformer = new ResourceTransformerImpl(mapping, verbose);
+        this.utf8Mapping = transformer.utf8Mapping;
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain pd, final byte[] classfileBuffer) {
+        if (loader == null || className == null || classBeingRedefined != null) {
+            return null; // bootstrap classes, hidden classes and redefined classes are never transformed
+        }
+        if (!ClassFileUtils.mayNeedPatching(classfileBuffer, utf8Mapping)) {
+            return null; // fast path
+        }
+        if (className.startsWith(TRANSFORMER_PACKAGE) || isDefinedClass(loader, className)) {
+            return null; // transformer classes and generated utility classes
+        }
+        try {
+            final String resourceName = className + CLASS_SUFFIX;
+            final Resource oldResource = new Resource(resourceName, classfileBuffer);
+            final Object event = TransformerEvents.beginResource();
+            Resource[] newResources = null;
+            try {
+                newResources = transformer.transform(oldResource);
+            } finally {
+                TransformerEvents.endResource(event, transformer, oldResource, newResources);
+            }
+            if (newResources.length == 0) {
+                return null;
+            }
+            if (!resourceName.equals(newResources[0].getName())) {
+                // class cannot be renamed while being loaded - it is most likely API class that will be replaced anyway
+                return null;
+            }
+            for (int i = 1; i < newResources.length; i++) {
+                defineUtilityClass(loader, pd, newResources[i]);
+            }
+            if (verbose) {
+                synchronized (System.out) {
+                    System.out.println("[" + currentThread() + "] Transformed class " + className + " loaded by " + loader);
+                }
+            }
+            return newResources[0].getData();
+        } catch (final Throwable t) {
+            // exceptions thrown by class file transformers are silently ignored by JVM
+            synchronized (System.err) {
+                System.err.println("[" + currentThread() + "] Couldn't transform class " + className + " loaded by " + loader);
+                t.printStackTrace(System.err);
+            }
+            return null;
+        }
+    }
+
+    private boolean isDefinedClass(final ClassLoader loader, final String className) {
+        final Set<String> classNames = definedClasses.get(loader);
+        return classNames != null && classNames.contains(className);
+    }
+
+    private void defineUtilityClass(final ClassLoader loader, final ProtectionDomain pd, final Resource utilClass) {
+        final String className = utilClass.getName().substring(0, utilClass.getName().length() - CLASS_SUFFIX.length());
+        Set<String> classNames;
+        synchronized (definedClasses) {
+            classNames = definedClasses.get(loader);
+            if (classNames == null) {
+                classNames = ConcurrentHashMap.newKeySet();
+                definedClasses.put(loader, classNames);
+            }
+        }
+        // registered before definition so definition callback doesn't transform utility class again
+        classNames.add(className);
+        // no lock may be held while defining class - JVM locks non parallel capable class loaders during definition
+        if (definer.isDefined(loader, className)) return;
+        try {
+            definer.defineClass(loader, className, utilClass.getData(), pd);
+        } catch (final LinkageError e) {
+            if (!definer.isDefined(loader, className)) throw e;
+            // other thread defined the same utility class concurrently
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.nodeps;
+
+import org.wildfly.extras.transformer.CompiledMapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Java agent transforming classes at load time with the <code>nodeps</code> transformation engine.
+ * Agent options are comma separated list of the following items:
+ * <ul>
+ *     <li><code>configs-dir=&lt;directory&gt;</code> - directory containing <code>default.mapping</code> file</li>
+ *     <li><code>invert</code> - if packages mapping should be inverted</li>
+ *     <li><code>verbose</code> - if transformed classes should be reported</li>
+ * </ul>
+ * Example usage: <code>java -javaagent:transformer-tools-agent.jar=configs-dir=/path/to/configs,verbose -jar app.jar</code>
+ */
+public final class TransformerAgent {
+
+    private static final String CONFIGS_DIR = "configs-dir=";
+    private static final String INVERT = "invert";
+    private static final String VERBOSE = "verbose";
+
+    private TransformerAgent() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Invoked by JVM when agent is specified on command line.
+     *
+     * @param agentArgs agent options
+     * @param inst instrumentation
+     * @throws IOException if packages mapping couldn't be loaded
+     */
+    public static void premain(final String agentArgs, final Instrumentation inst) throws IOException {
+        install(agentArgs, inst);
+    }
+
+    /**
+     * Invoked by JVM when agent is attached to running VM. Only classes loaded after agent was attached are transformed.
+     *
+     * @param agentArgs agent options
+     * @param inst instrumentation
+     * @throws IOException if packages mapping couldn't be loaded
+     */
+    public static void agentmain(final String agentArgs, final Instrumentation inst) throws IOException {
+        install(agentArgs, inst);
+    }
+
+    private static void install(final String agentArgs, final Instrumentation inst) throws IOException {
+        File configsDir = null;
+        boolean invert = false;
+        boolean verbose = false;
+        if (agentArgs != null) {
+            for (String option : agentArgs.split(",")) {
+                option = option.trim();
+                if (option.isEmpty()) {
+                    continue;
+                } else if (option.startsWith(CONFIGS_DIR)) {
+                    configsDir = new File(option.substring(CONFIGS_DIR.length()));
+                } else if (INVERT.equals(option)) {
+                    invert = true;
+                } else if (VERBOSE.equals(option)) {
+                    verbose = true;
+                } else {
+                    throw new IllegalArgumentException("Unsupported agent option: " + option);
+                }
+            }
+        }
+        final CompiledMapping mapping = CompiledMapping.load(configsDir, invert);
+        inst.addTransformer(new ClassFileTransformerImpl(mapping, verbose, ClassDefiner.of(inst)));
+    }
+
+}
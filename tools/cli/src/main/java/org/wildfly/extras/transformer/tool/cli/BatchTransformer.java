@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.tool.cli;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Transforms batch of archives concurrently with single shared archive transformer.
+ * Every line of batch job file specifies source and target archive separated by whitespace
+ * (or by tab character if the line contains one, so paths can contain spaces).
+ * Empty lines and lines starting with <code>#</code> character are ignored.
+ */
+final class BatchTransformer {
+
+    private static final char COMMENT = '#';
+    private static final char TAB = '\t';
+    private final ArchiveTransformer archiveTransformer;
+    private final int threads;
+
+    BatchTransformer(final ArchiveTransformer archiveTransformer, final int threads) {
+        this.archiveTransformer = archiveTransformer;
+        this.threads = threads;
+    }
+
+    /**
+     * Parses batch jobs.
+     *
+     * @param jobs batch job file content
+     * @return source and target archive pairs
+     * @throws IOException if some I/O error occurs
+     * @throws IllegalArgumentException if some job definition is invalid
+     */
+    static List<File[]> parseJobs(final Reader jobs) throws IOException {
+        final List<File[]> retVal = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(jobs);
+        String line;
+        String[] archives;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == COMMENT) continue;
+            archives = line.indexOf(TAB) != -1 ? line.split("\t+") : line.split("\\s+");
+            if (archives.length != 2) {
+                throw new IllegalArgumentException("Invalid job on line " + lineNumber + ", expected source and target archive: " + line);
+            }
+            retVal.add(new File[] {new File(archives[0].trim()).getAbsoluteFile(), new File(archives[1].trim()).getAbsoluteFile()});
+        }
+        return retVal;
+    }
+
+    /**
+     * Transforms all archives and reports status of every archive in the job order.
+     *
+     * @param jobs source and target archive pairs
+     * @param out successful transformations report stream
+     * @param err failed transformations report stream
+     * @param summary whether summary should be reported after all archives
+     * @return count of failed transformations
+     * @throws InterruptedException if interrupted while waiting for transformations to complete
+     */
+    int transform(final List<File[]> jobs, final PrintStream out, final PrintStream err, final boolean summary) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>(jobs.size());
+            for (final File[] job : jobs) {
+                results.add(executor.submit(() -> transform(job[0], job[1])));
+            }
+            int failures = 0;
+            for (int i = 0; i < jobs.size(); i++) {
+                final File source = jobs.get(i)[0];
+                final File target = jobs.get(i)[1];
+                try {
+                    if (results.get(i).get()) {
+                        out.println("Archive " + source + " was transformed to " + target + " according to given transformation rules.");
+                    } else {
+                        out.println("Archive " + source + " was copied to " + target + ". No transformation rule was applicable.");
+                    }
+                } catch (final ExecutionException e) {
+                    failures++;
+                    err.println("Archive " + source + " transformation failed: " + e.getCause());
+                }
+            }
+            if (summary) {
+                out.println(jobs.size() + " archive(s) processed, " + failures + " failed.");
+            }
+            return failures;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean transform(final File source, final File target) throws IOException {
+        if (!source.exists()) {
+            throw new IOException("Source archive doesn't exist: " + source.getAbsolutePath());
+        }
+        return archiveTransformer.transform(source, target);
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.tool.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.wildfly.extras.transformer.ArchiveTransformer;
+import org.wildfly.extras.transformer.TransformationCache;
+import org.wildfly.extras.transformer.TransformerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resident transformer daemon keeping warmed archive transformer with loaded packages mapping.
+ * Daemon listens on loopback TCP port and it is described by daemon file located in
+ * <code>~/.batavia</code> directory. Daemon file is readable by its owner only and it contains
+ * port, configuration and random token every client request must present.
+ * Clients use running daemon with the same transformation engine build and the same configuration only.
+ */
+final class Daemon {
+
+    private static final int MAGIC = 0x42415444;
+    private static final int VERSION = 1;
+    private static final int MAX_JOBS = 0xFFFFFF;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    private static final int TOKEN_LENGTH = 16;
+    private static final String DAEMON_DIR = ".batavia";
+    private static final String PORT = "port";
+    private static final String TOKEN = "token";
+    private static final String CONFIGS_DIR = "configsDir";
+    private static final String CONFIGS_DIGEST = "configsDigest";
+    private static final String ENGINE_ID = "engineId";
+    private static final String REPRODUCIBLE = "reproducible";
+    private static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private Daemon() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Runs daemon until JVM is terminated.
+     *
+     * @param archiveTransformer warmed archive transformer
+     * @param configsDir configuration files directory or <code>null</code>
+     * @param configsDigest digest of configuration files archive transformer was created from
+     * @param reproducible whether archive transformer produces reproducible archives
+     * @param threads count of archives transformed concurrently per request
+     * @throws IOException if some I/O error occurs
+     */
+    static void run(final ArchiveTransformer archiveTransformer, final String configsDir, final String configsDigest,
+                    final boolean reproducible, final int threads) throws IOException {
+        final BatchTransformer batchTransformer = new BatchTransformer(archiveTransformer, threads);
+        final byte[] token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "Transformer daemon worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            final Path daemonFile = getDaemonFile(configsDir, reproducible);
+            writeDaemonFile(daemonFile, server.getLocalPort(), token, configsDir, configsDigest, reproducible);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(daemonFile);
+                } catch (final IOException ignored) {
+                    // nothing to do
+                }
+            }));
+            System.out.println("Transformer daemon listening on " + server.getLocalSocketAddress() + ", daemon file " + daemonFile);
+            while (true) {
+                final Socket socket = server.accept();
+                executor.execute(() -> serve(socket, batchTransformer, token));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void serve(final Socket socket, final BatchTransformer batchTransformer, final byte[] token) {
+        try (Socket s = socket) {
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+            final byte[] clientToken = new byte[TOKEN_LENGTH];
+            in.readFully(clientToken);
+            if (!MessageDigest.isEqual(token, clientToken)) return;
+            s.setSoTimeout(0);
+            final boolean batch = in.readBoolean();
+            final int jobsCount = in.readInt();
+            if (jobsCount < 0 || jobsCount > MAX_JOBS) return;
+            final List<File[]> jobs = new ArrayList<>(jobsCount);
+            for (int i = 0; i < jobsCount; i++) {
+                jobs.add(new File[] {new File(readString(in)), new File(readString(in))});
+            }
+            final ByteArrayOutputStream outReport = new ByteArrayOutputStream();
+            final ByteArrayOutputStream errReport = new ByteArrayOutputStream();
+            final int failures;
+            try (PrintStream outStream = new PrintStream(outReport, true, UTF_8.name());
+                 PrintStream errStream = new PrintStream(errReport, true, UTF_8.name())) {
+                failures = batchTransformer.transform(jobs, outStream, errStream, batch);
+            }
+            out.writeInt(failures == 0 ? 0 : 1);
+            writeBytes(out, outReport.toByteArray());
+            writeBytes(out, errReport.toByteArray());
+            out.flush();
+        } catch (final IOException ignored) {
+            // client disconnected
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Transforms archives with running daemon.
+     *
+     * @param configsDir configuration files directory or <code>null</code>
+     * @param reproducible whether reproducible archives should be produced
+     * @param jobs source and target archive pairs with absolute paths
+     * @param batch whether batch summary should be reported
+     * @param out successful transformations report stream
+     * @param err failed transformations report stream
+     * @return process exit code or <code>null</code> if there is no running daemon with given configuration
+     * and the same transformation engine build
+     */
+    static Integer transform(final String configsDir, final boolean reproducible, final List<File[]> jobs, final boolean batch,
+                             final PrintStream out, final PrintStream err) {
+        final Properties daemon = readDaemonFile(configsDir, reproducible);
+        if (daemon == null) return null;
+        final byte[] report;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(daemon.getProperty(PORT))), CONNECT_TIMEOUT);
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.write(fromHex(daemon.getProperty(TOKEN)));
+            dos.writeBoolean(batch);
+            dos.writeInt(jobs.size());
+            for (final File[] job : jobs) {
+                writeString(dos, job[0].getAbsolutePath());
+                writeString(dos, job[1].getAbsolutePath());
+            }
+            dos.flush();
+            final DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final int exitCode = dis.readInt();
+            out.write(readBytes(dis));
+            err.write(readBytes(dis));
+            out.flush();
+            err.flush();
+            return exitCode;
+        } catch (final IOException | RuntimeException e) {
+            return null; // daemon is not running or it died - fall back to in-process transformation
+        }
+    }
+
+    private static Path getDaemonFile(final String configsDir, final boolean reproducible) {
+        final String key = (configsDir == null ? "" : new File(configsDir).getAbsolutePath()) + (reproducible ? "|" + REPRODUCIBLE : "");
+        return new File(System.getProperty("user.home"), DAEMON_DIR).toPath().resolve("daemon-" + Integer.toHexString(key.hashCode()) + ".properties");
+    }
+
+    private static void writeDaemonFile(final Path daemonFile, final int port, final byte[] token, final String configsDir,
+                                        final String configsDigest, final boolean reproducible) throws IOException {
+        final Properties daemon = new Properties();
+        daemon.setProperty(PORT, String.valueOf(port));
+        daemon.setProperty(TOKEN, toHex(token));
+        daemon.setProperty(CONFIGS_DIR, configsDir == null ? "" : new File(configsDir).getAbsolutePath());
+        daemon.setProperty(CONFIGS_DIGEST, configsDigest);
+        final String engineId = getEngineId();
+        if (engineId != null) {
+            daemon.setProperty(ENGINE_ID, engineId);
+        }
+        daemon.setProperty(REPRODUCIBLE, getReproducibleMode(reproducible));
+        Files.createDirectories(daemonFile.getParent());
+        final Path tempFile = Files.createTempFile(daemonFile.getParent(), "daemon", ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+            } catch (final UnsupportedOperationException ignored) {
+                // not a POSIX file system
+            }
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                daemon.store(os, "Transformer daemon");
+            }
+            Files.move(tempFile, daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static Properties readDaemonFile(final String configsDir, final boolean reproducible) {
+        final Path daemonFile = getDaemonFile(configsDir, reproducible);
+        if (!Files.isRegularFile(daemonFile)) return null;
+        final Properties daemon = new Properties();
+        try (InputStream is = Files.newInputStream(daemonFile)) {
+            daemon.load(is);
+        } catch (final IOException e) {
+            return null;
+        }
+        final String expectedConfigsDir = configsDir == null ? "" : new File(configsDir).getAbsolutePath();
+        if (!expectedConfigsDir.equals(daemon.getProperty(CONFIGS_DIR)) || !getReproducibleMode(reproducible).equals(daemon.getProperty(REPRODUCIBLE)) || daemon.getProperty(PORT) == null || daemon.getProperty(TOKEN) == null) {
+            return null;
+        }
+        // daemon of unidentified engine build is never reused
+        final String engineId = getEngineId();
+        if (engineId == null || !engineId.equals(daemon.getProperty(ENGINE_ID))) {
+            return null;
+        }
+        try {
+            if (!configsDigest(configsDir).equals(daemon.getProperty(CONFIGS_DIGEST))) {
+                return null;
+            }
+        } catch (final IOException e) {
+            return null;
+        }
+        return daemon;
+    }
+
+    /**
+     * Computes digest of configuration files content. Daemon computes it before it creates archive transformer
+     * so configuration files modified later are always detected by clients.
+     *
+     * @param configsDir configuration files directory or <code>null</code>
+     * @return configuration files digest
+     * @throws IOException if some I/O error occurs
+     */
+    static String configsDigest(final String configsDir) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+        final File[] configs = configsDir != null ? new File(configsDir).listFiles(File::isFile) : null;
+        if (configs != null) {
+            Arrays.sort(configs);
+            for (final File config : configs) {
+                digest.update((byte) 0);
+                digest.update(config.getName().getBytes(UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(config.toPath()));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Client doesn't create archive transformer so engine is identified by its factory class.
+     * Factory is part of engine code so engine identifier covers the same engine and api code.
+     */
+    private static String getEngineId() {
+        return TransformationCache.engineId(TransformerFactory.getInstance().getClass());
+    }
+
+    /**
+     * Reproducible archives entry time depends on environment so client and daemon environments must match.
+     */
+    private static String getReproducibleMode(final boolean reproducible) {
+        if (!reproducible) return "false";
+        final String sourceDateEpoch = System.getenv(SOURCE_DATE_EPOCH);
+        return sourceDateEpoch == null ? "true" : SOURCE_DATE_EPOCH + "=" + sourceDateEpoch.trim();
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        writeBytes(out, s.getBytes(UTF_8));
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return new String(readBytes(in), UTF_8);
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) throw new IOException("Invalid data length: " + length);
+        final byte[] retVal = new byte[length];
+        in.readFully(retVal);
+        return retVal;
+    }
+
+    private static String toHex(final byte[] data) {
+        final StringBuilder sb = new StringBuilder(data.length * 2);
+        for (final byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(final String s) {
+        if (s.length() != TOKEN_LENGTH * 2) throw new IllegalArgumentException("Invalid token");
+        final byte[] retVal = new byte[TOKEN_LENGTH];
+        for (int i = 0; i < retVal.length; i++) {
+            retVal[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return retVal;
+    }
+
+}
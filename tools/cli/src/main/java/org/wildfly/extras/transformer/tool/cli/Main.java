@@ -15,12 +15,20 @@
  */
 package org.wildfly.extras.transformer.tool.cli;
 
+import org.wildfly.extras.transformer.DefaultTransformerMetrics;
 import org.wildfly.extras.transformer.TransformerBuilder;
+import org.wildfly.extras.transformer.TransformerMetrics;
 import org.wildfly.extras.transformer.ArchiveTransformer;
 import org.wildfly.extras.transformer.TransformerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Command line tool for transforming class files or jar files.
@@ -31,22 +39,71 @@ import java.io.IOException;
 public final class Main {
 
     private static final String CONFIGS_DIR = "--configs-dir=";
+    private static final String BATCH = "--batch=";
+    private static final String THREADS = "--threads=";
+    private static final String DAEMON = "--daemon";
+    private static final String REPRODUCIBLE = "--reproducible";
+    private static final String METRICS = "--metrics";
+    private static final String STDIN = "-";
 
-    public static void main(final String... args) throws IOException {
+    public static void main(final String... args) throws IOException, InterruptedException {
         if (!validParameters(args)) {
             printUsage();
             System.exit(1);
         }
 
-        final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
-        if (args.length > 2) {
-            for (int i = 0; i < args.length - 2; i++) {
-                if (args[i].startsWith(CONFIGS_DIR)) {
-                    builder.setConfigsDir(args[i].substring(CONFIGS_DIR.length()));
-                }
+        final boolean batchMode = isBatchMode(args);
+        final boolean daemonMode = isDaemonMode(args);
+        final int optionsCount = batchMode || daemonMode ? args.length : args.length - 2;
+        String configsDir = null;
+        String batch = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean reproducible = false;
+        DefaultTransformerMetrics metrics = null;
+        for (int i = 0; i < optionsCount; i++) {
+            if (args[i].startsWith(CONFIGS_DIR)) {
+                configsDir = args[i].substring(CONFIGS_DIR.length());
+            } else if (args[i].startsWith(BATCH)) {
+                batch = args[i].substring(BATCH.length());
+            } else if (args[i].startsWith(THREADS)) {
+                threads = Integer.parseInt(args[i].substring(THREADS.length()));
+            } else if (REPRODUCIBLE.equals(args[i])) {
+                reproducible = true;
+            } else if (METRICS.equals(args[i])) {
+                metrics = new DefaultTransformerMetrics();
+            }
+        }
+        if (daemonMode) {
+            final String configsDigest = Daemon.configsDigest(configsDir);
+            Daemon.run(newArchiveTransformer(configsDir, reproducible, null), configsDir, configsDigest, reproducible, threads);
+            return;
+        }
+        final List<File[]> jobs;
+        if (batchMode) {
+            try (Reader reader = new InputStreamReader(STDIN.equals(batch) ? System.in : new FileInputStream(batch), StandardCharsets.UTF_8)) {
+                jobs = BatchTransformer.parseJobs(reader);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+                return;
+            }
+        } else {
+            jobs = Collections.singletonList(new File[] {new File(args[args.length - 2]), new File(args[args.length - 1])});
+        }
+        // thin client - reuse running daemon if available, metrics can be collected only in-process
+        final Integer exitCode = metrics == null ? Daemon.transform(configsDir, reproducible, jobs, batchMode, System.out, System.err) : null;
+        if (exitCode != null) {
+            if (exitCode != 0) System.exit(exitCode);
+            return;
+        }
+        final ArchiveTransformer archiveTransformer = newArchiveTransformer(configsDir, reproducible, metrics);
+        if (batchMode) {
+            final int failures = new BatchTransformer(archiveTransformer, threads).transform(jobs, System.out, System.err, true);
+            if (metrics != null) {
+                metrics.printSummary(System.err);
             }
+            System.exit(failures == 0 ? 0 : 1);
         }
-        final ArchiveTransformer archiveTransformer = builder.build();
         final File sourceArchive = new File(args[args.length - 2]);
         final File targetArchive = new File(args[args.length - 1]);
         final boolean transformed = archiveTransformer.transform(sourceArchive, targetArchive);
@@ -55,15 +112,56 @@ public final class Main {
         } else {
             System.out.println("Archive " + args[args.length - 2] + " was copied to " + args[args.length - 1] + ". No transformation rule was applicable.");
         }
+        if (metrics != null) {
+            metrics.printSummary(System.err);
+        }
+    }
+
+    private static ArchiveTransformer newArchiveTransformer(final String configsDir, final boolean reproducible, final TransformerMetrics metrics) {
+        final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
+        if (configsDir != null) {
+            builder.setConfigsDir(configsDir);
+        }
+        if (reproducible) {
+            builder.setReproducible(true);
+        }
+        if (metrics != null) {
+            builder.setMetrics(metrics);
+        }
+        return builder.build();
+    }
+
+    private static boolean isDaemonMode(final String... args) {
+        for (String arg : args) {
+            if (DAEMON.equals(arg)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isBatchMode(final String... args) {
+        for (String arg : args) {
+            if (arg != null && arg.startsWith(BATCH)) return true;
+        }
+        return false;
     }
 
     private static boolean validParameters(final String... args) {
-        if (args == null || args.length < 2) {
+        if (args == null) {
+            System.err.println("At least 2 arguments are required");
+            return false;
+        }
+        final boolean batchMode = isBatchMode(args);
+        final boolean daemonMode = isDaemonMode(args);
+        if (batchMode && daemonMode) {
+            System.err.println(BATCH + " and " + DAEMON + " cannot be combined");
+            return false;
+        }
+        if (!batchMode && !daemonMode && args.length < 2) {
             System.err.println("At least 2 arguments are required");
             return false;
         }
-        if (args.length > 3) {
-            System.err.println("Maximum 3 arguments can be specified");
+        if (!batchMode && !daemonMode && args.length > 5) {
+            System.err.println("Maximum 5 arguments can be specified");
             return false;
         }
         for (String arg : args) {
@@ -76,20 +174,85 @@ public final class Main {
                 return false;
             }
         }
-        if (args.length > 2) {
-            boolean configsDirDefined = false;
-            for (int i = 0; i < args.length - 2; i++) {
-                if (args[i].startsWith(CONFIGS_DIR)) {
-                    if (configsDirDefined) {
-                        System.err.println(CONFIGS_DIR + " can be specified only once");
+        final int optionsCount = batchMode || daemonMode ? args.length : args.length - 2;
+        boolean configsDirDefined = false;
+        boolean batchDefined = false;
+        boolean threadsDefined = false;
+        boolean daemonDefined = false;
+        boolean reproducibleDefined = false;
+        boolean metricsDefined = false;
+        for (int i = 0; i < optionsCount; i++) {
+            if (args[i].startsWith(CONFIGS_DIR)) {
+                if (configsDirDefined) {
+                    System.err.println(CONFIGS_DIR + " can be specified only once");
+                    return false;
+                }
+                configsDirDefined = true;
+                continue;
+            }
+            if (args[i].startsWith(BATCH)) {
+                if (batchDefined) {
+                    System.err.println(BATCH + " can be specified only once");
+                    return false;
+                }
+                batchDefined = true;
+                final String batch = args[i].substring(BATCH.length());
+                if (!STDIN.equals(batch) && !new File(batch).isFile()) {
+                    System.err.println("Batch job file doesn't exist: " + new File(batch).getAbsolutePath());
+                    return false;
+                }
+                continue;
+            }
+            if (REPRODUCIBLE.equals(args[i])) {
+                if (reproducibleDefined) {
+                    System.err.println(REPRODUCIBLE + " can be specified only once");
+                    return false;
+                }
+                reproducibleDefined = true;
+                continue;
+            }
+            if (METRICS.equals(args[i])) {
+                if (metricsDefined) {
+                    System.err.println(METRICS + " can be specified only once");
+                    return false;
+                }
+                if (daemonMode) {
+                    System.err.println(METRICS + " and " + DAEMON + " cannot be combined");
+                    return false;
+                }
+                metricsDefined = true;
+                continue;
+            }
+            if (daemonMode && DAEMON.equals(args[i])) {
+                if (daemonDefined) {
+                    System.err.println(DAEMON + " can be specified only once");
+                    return false;
+                }
+                daemonDefined = true;
+                continue;
+            }
+            if ((batchMode || daemonMode) && args[i].startsWith(THREADS)) {
+                if (threadsDefined) {
+                    System.err.println(THREADS + " can be specified only once");
+                    return false;
+                }
+                threadsDefined = true;
+                try {
+                    if (Integer.parseInt(args[i].substring(THREADS.length())) < 1) {
+                        System.err.println(THREADS + " value must be positive integer");
                         return false;
                     }
-                    configsDirDefined = true;
-                    continue;
+                } catch (NumberFormatException e) {
+                    System.err.println(THREADS + " value must be positive integer");
+                    return false;
                 }
-                System.err.println("Unknown option: " + args[i]);
-                return false;
+                continue;
             }
+            System.err.println("Unknown option: " + args[i]);
+            return false;
+        }
+        if (batchMode || daemonMode) {
+            return true;
         }
         final File sourceFile = new File(args[args.length - 2]);
         if (!sourceFile.exists()) {
@@ -102,11 +265,29 @@ public final class Main {
     private static void printUsage() {
         System.err.println();
         System.err.println("Usage: " + Main.class.getName() + " [options] source.archive target.archive");
+        System.err.println("   or: " + Main.class.getName() + " [options] " + BATCH + "<job file> [" + THREADS + "<count>]");
+        System.err.println("   or: " + Main.class.getName() + " [options] " + DAEMON + " [" + THREADS + "<count>]");
         System.err.println("");
         System.err.println("Where options include:");
         System.err.println("   " + CONFIGS_DIR + "<directory>");
         System.err.println("              If this parameter is not specified on the command line");
         System.err.println("              default mapping configurations will be used");
+        System.err.println("   " + REPRODUCIBLE);
+        System.err.println("              Produces byte for byte identical archives for the same input. All entries get");
+        System.err.println("              SOURCE_DATE_EPOCH environment variable time (or 1980-02-01T00:00:00Z) in UTC");
+        System.err.println("   " + METRICS);
+        System.err.println("              Prints entry counts, transferred bytes, patched classes and phase timings");
+        System.err.println("              to standard error once transformation finishes. Running daemon is not used");
+        System.err.println("   " + BATCH + "<job file>");
+        System.err.println("              Transforms all archives listed in job file (or standard input if '" + STDIN + "' is specified)");
+        System.err.println("              in single JVM. Every line specifies source and target archive separated by whitespace");
+        System.err.println("              (or by tab if paths contain spaces). Exit code is non-zero if any archive fails");
+        System.err.println("   " + DAEMON);
+        System.err.println("              Starts resident daemon keeping warmed transformer. Subsequent invocations");
+        System.err.println("              with the same configuration are delegated to running daemon");
+        System.err.println("   " + THREADS + "<count>");
+        System.err.println("              Count of archives transformed concurrently in batch or daemon mode,");
+        System.err.println("              defaults to number of available processors");
     }
 
 }
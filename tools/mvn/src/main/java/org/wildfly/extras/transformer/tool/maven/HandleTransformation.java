@@ -15,18 +15,31 @@
  */
 package org.wildfly.extras.transformer.tool.maven;
 
+import org.apache.maven.plugin.MojoExecution;
 import org.wildfly.extras.transformer.TransformerBuilder;
 import org.wildfly.extras.transformer.TransformerFactory;
 import org.wildfly.extras.transformer.ArchiveTransformer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.Collections;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
- * HandleTransformation
+ * HandleTransformation. Single instance is used per mojo execution so packages mapping is loaded only once.
+ * Files are transformed only if their targets are not up-to-date (see {@link TransformationStamps}).
+ * Directory files are transformed concurrently if parallelism is greater than <code>one</code>, using virtual threads
+ * when running on JDK 21+ and bounded platform threads pool otherwise.
  *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  * @author Scott Marlow
@@ -34,50 +47,192 @@ import java.util.Set;
 final class HandleTransformation {
 
     public static final String JAR_FILE_EXT = ".jar";
+    private static final String STAMPS_DIR = "transformer-stamps";
+    private final ArchiveTransformer transformer;
+    private final TransformationStamps stamps;
+    private final int parallelism;
+
+    /**
+     * Creates transformation handler.
+     *
+     * @param configsDir configuration files directory or <code>null</code>
+     * @param verbose verbose mode
+     * @param invert invert packages mapping
+     * @param stampsFile up-to-date stamps file or <code>null</code> if up-to-date checks are disabled
+     * @param parallelism maximum count of files transformed concurrently, <code>zero</code> means count of available processors
+     * @param entryTime fixed modification time of transformed archive entries or <code>null</code> if current time should be used
+     */
+    HandleTransformation(final String configsDir, final boolean verbose, final boolean invert, final File stampsFile, final int parallelism,
+                         final Long entryTime) throws IOException {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism cannot be negative");
+        }
+        this.parallelism = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
+        if (configsDir != null) {
+            builder.setConfigsDir(configsDir);
+        }
+        builder.setVerbose(verbose);
+        builder.setInvert(invert);
+        if (entryTime != null) {
+            builder.setEntryTime(entryTime);
+        }
+        transformer = builder.build();
+        final String fingerprint = stampsFile != null ? TransformationStamps.fingerprint(transformer.getClass(), configsDir, invert, entryTime) : null;
+        stamps = fingerprint != null ? TransformationStamps.load(stampsFile, fingerprint) : null;
+    }
+
+    /**
+     * Parses reproducible build timestamp the same way as other Maven archiving plugins do.
+     *
+     * @param outputTimestamp either seconds since epoch or ISO-8601 date and time with offset,
+     * single character or <code>null</code> means reproducible mode is disabled
+     * @return entries modification time in milliseconds since epoch or <code>null</code> if reproducible mode is disabled
+     * @throws IllegalArgumentException if timestamp has invalid format
+     */
+    static Long parseOutputTimestamp(final String outputTimestamp) {
+        if (outputTimestamp == null || outputTimestamp.trim().length() < 2) return null;
+        final String value = outputTimestamp.trim();
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(value) * 1000;
+            }
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (final NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid project.build.outputTimestamp value: " + value, e);
+        }
+    }
+
+    /**
+     * Gets up-to-date stamps file of given mojo execution.
+     *
+     * @param buildDirectory project build directory
+     * @param execution mojo execution
+     * @return stamps file or <code>null</code> if mojo execution is not available
+     */
+    static File getStampsFile(final String buildDirectory, final MojoExecution execution) {
+        if (buildDirectory == null || execution == null) return null;
+        return new File(new File(buildDirectory, STAMPS_DIR), execution.getGoal() + "-" + execution.getExecutionId() + ".properties");
+    }
 
     /**
      * Transform the files contained under the folder path specified.
      *
      * @param folder represents a filesystem path that contains files/subfolders to be transformed.
      */
-    static void transformDirectory(final File folder, final File targetFolder, final String configsDir, final boolean verbose, final boolean overwrite, boolean invert) throws IOException {
-        transformDirectory(folder, targetFolder, configsDir, verbose, overwrite, invert, Collections.emptySet());
+    void transformDirectory(final File folder, final File targetFolder, final boolean overwrite) throws IOException {
+        transformDirectory(folder, targetFolder, overwrite, Collections.emptySet());
     }
 
     /**
-     * Transform the files contained under the folder path specified.
+     * Transform the files contained under the folder path specified. Failures of individual files don't stop
+     * the transformation, they are reported together once all files were processed.
      *
      * @param folder represents a filesystem path that contains files/subfolders to be transformed.
      */
-    static void transformDirectory(final File folder, final File targetFolder, final String configsDir, final boolean verbose, final boolean overwrite, boolean invert, final
-                                   Set<String> ignored) throws IOException {
+    void transformDirectory(final File folder, final File targetFolder, final boolean overwrite, final Set<String> ignored) throws IOException {
+        final Queue<FileFailure> failures = new ConcurrentLinkedQueue<>();
+        try {
+            if (parallelism == 1) {
+                walk(folder, targetFolder, (sourceFile, targetFile) -> {
+                    try {
+                        transformDirectoryFile(sourceFile, targetFile, overwrite, ignored);
+                    } catch (IOException | RuntimeException e) {
+                        failures.add(new FileFailure(sourceFile, e));
+                    }
+                });
+            } else {
+                transformDirectoryConcurrently(folder, targetFolder, overwrite, ignored, failures);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while transforming " + folder);
+        }
+        if (!failures.isEmpty()) {
+            final StringBuilder message = new StringBuilder();
+            message.append(failures.size()).append(" file(s) couldn't be transformed:");
+            for (FileFailure failure : failures) {
+                message.append(System.lineSeparator()).append("    ").append(failure.file).append(": ").append(failure.cause);
+            }
+            final IOException e = new IOException(message.toString());
+            for (FileFailure failure : failures) {
+                e.addSuppressed(failure.cause);
+            }
+            throw e;
+        }
+    }
+
+    private void transformDirectoryConcurrently(final File folder, final File targetFolder, final boolean overwrite, final Set<String> ignored,
+                                                final Queue<FileFailure> failures) throws InterruptedException {
+        final ExecutorService executor = newExecutor();
+        final Semaphore permits = new Semaphore(parallelism);
+        try {
+            walk(folder, targetFolder, (sourceFile, targetFile) -> {
+                permits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            transformDirectoryFile(sourceFile, targetFile, overwrite, ignored);
+                        } catch (Throwable t) {
+                            failures.add(new FileFailure(sourceFile, t));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            });
+            // wait for all submitted files
+            permits.acquire(parallelism);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void walk(final File folder, final File targetFolder, final FileHandler handler) throws InterruptedException {
         final File[] files = folder.listFiles();
         if (files == null) {
             return;
         }
         for (File sourceFile : files) {
-            File targetFile = new File(targetFolder, sourceFile.getName());
-
             if (sourceFile.isDirectory()) {
-                transformDirectory(sourceFile, new File(targetFolder, sourceFile.getName()), configsDir, verbose, overwrite, invert, ignored);
+                walk(sourceFile, new File(targetFolder, sourceFile.getName()), handler);
             } else {
-                if (targetFile.exists()) {
-                    if (overwrite) {
-                        targetFile.delete();
-                        transformFile(sourceFile, new File(targetFolder, sourceFile.getName()), configsDir, verbose, invert, ignored);
-                    }
-                } else {
-                    transformFile(sourceFile, new File(targetFolder, sourceFile.getName()), configsDir, verbose, invert, ignored);
-                }
+                handler.file(sourceFile, new File(targetFolder, sourceFile.getName()));
             }
         }
     }
 
-    static void transformFile(final File sourceFile, final File targetFile, final String configsDir, final boolean verbose, final boolean invert) throws IOException {
-        transformFile(sourceFile, targetFile, configsDir, verbose, invert, Collections.emptySet());
+    private void transformDirectoryFile(final File sourceFile, final File targetFile, final boolean overwrite, final Set<String> ignored) throws IOException {
+        if (targetFile.exists()) {
+            if (overwrite && !isUpToDate(sourceFile, targetFile)) {
+                targetFile.delete();
+                transformFile(sourceFile, targetFile, ignored);
+            }
+        } else {
+            transformFile(sourceFile, targetFile, ignored);
+        }
     }
 
-    static void transformFile(final File sourceFile, final File targetFile, final String configsDir, final boolean verbose, final boolean invert, Set<String> ignored) throws IOException {
+    /**
+     * Creates virtual threads executor on JDK 21+, bounded platform threads pool otherwise.
+     */
+    private ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            // JDK without virtual threads or with virtual threads in preview only
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    }
+
+    void transformFile(final File sourceFile, final File targetFile) throws IOException {
+        transformFile(sourceFile, targetFile, Collections.emptySet());
+    }
+
+    void transformFile(final File sourceFile, final File targetFile, final Set<String> ignored) throws IOException {
         if (!sourceFile.exists()) {
             throw new IllegalArgumentException("input file " + sourceFile.getName() + " does not exist");
         }
@@ -88,13 +243,17 @@ final class HandleTransformation {
                 return;
             }
         }
-        TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
-        if (configsDir != null) {
-            builder.setConfigsDir(configsDir);
+        if (isUpToDate(sourceFile, targetFile)) {
+            return;
         }
-        builder.setVerbose(verbose);
-        builder.setInvert(invert);
-        ArchiveTransformer transformer = builder.build();
+        transformFileUnconditionally(sourceFile, targetFile);
+        record(sourceFile, targetFile);
+    }
+
+    /**
+     * Transforms file without consulting up-to-date stamps.
+     */
+    void transformFileUnconditionally(final File sourceFile, final File targetFile) throws IOException {
         if (transformer.canTransformIndividualClassFile() || sourceFile.getName().endsWith(JAR_FILE_EXT)) {
             Files.createDirectories(targetFile.toPath().getParent());
             transformer.transform(sourceFile, targetFile);
@@ -103,4 +262,38 @@ final class HandleTransformation {
         }
     }
 
+    boolean isUpToDate(final File sourceFile, final File targetFile) throws IOException {
+        return stamps != null && stamps.isUpToDate(sourceFile, targetFile);
+    }
+
+    void record(final File sourceFile, final File targetFile) throws IOException {
+        if (stamps != null) {
+            stamps.record(sourceFile, targetFile);
+        }
+    }
+
+    /**
+     * Persists up-to-date stamps. Must be called at the end of mojo execution.
+     */
+    void saveStamps() throws IOException {
+        if (stamps != null) {
+            stamps.save();
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileHandler {
+        void file(File sourceFile, File targetFile) throws InterruptedException;
+    }
+
+    private static final class FileFailure {
+        private final File file;
+        private final Throwable cause;
+
+        private FileFailure(final File file, final Throwable cause) {
+            this.file = file;
+            this.cause = cause;
+        }
+    }
+
 }
@@ -16,7 +16,9 @@
 package org.wildfly.extras.transformer.tool.maven;
 
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -35,6 +37,8 @@ import java.util.Map;
 @Mojo(name = "transform-classes", defaultPhase = LifecyclePhase.PROCESS_CLASSES)
 public class MavenPluginTransformer extends AbstractMojo {
 
+    @Component
+    protected MojoExecution execution;
 
     @Parameter(defaultValue = "${project}", readonly = true)
     private MavenProject mavenProject;
@@ -73,15 +77,47 @@ public class MavenPluginTransformer extends AbstractMojo {
     @Parameter(property = "overwrite", required = false, defaultValue="false")
     private boolean overwrite;
 
+    /**
+     * Maximum count of files transformed concurrently when transforming folder, <code>0</code> means count of available processors.
+     */
+    @Parameter(property = "parallelism", required = false, defaultValue = "0")
+    private int parallelism;
+
+    /**
+     * Timestamp for reproducible transformed archives, either seconds since epoch or ISO-8601 date and time with offset.
+     * All transformed archive entries get this modification time in UTC. Not set or single character disables it.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
     @Override
     public void execute() throws MojoExecutionException {
         if (getLog().isDebugEnabled()) {
             dump();
         }
+        final HandleTransformation handler;
+        try {
+            handler = new HandleTransformation(configsDir, getLog().isDebugEnabled(), invert, HandleTransformation.getStampsFile(buildFolder, execution), parallelism,
+                    HandleTransformation.parseOutputTimestamp(outputTimestamp));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        try {
+            execute(handler);
+        } finally {
+            try {
+                handler.saveStamps();
+            } catch (IOException e) {
+                getLog().warn("Couldn't save up-to-date stamps: " + e.getMessage());
+            }
+        }
+    }
+
+    private void execute(final HandleTransformation handler) throws MojoExecutionException {
         if (inputFile != null && inputFile.isFile() && outputFile != null) {
             try {
                 getLog().info("transforming specific input " + inputFile.getAbsolutePath() + " into " + outputFile.getAbsolutePath());
-                HandleTransformation.transformFile(inputFile, outputFile, configsDir, getLog().isDebugEnabled(), invert);
+                handler.transformFile(inputFile, outputFile);
                 return;
             } catch (IOException e) {
                 throw new MojoExecutionException(e.getMessage(), e);
@@ -97,7 +133,7 @@ public class MavenPluginTransformer extends AbstractMojo {
             if (outputDirectory.isDirectory()) {
                 try {
                     getLog().info("Transforming contents of folder " + inputFile + " to " + outputFolder);
-                    HandleTransformation.transformDirectory(inputFile, outputDirectory, configsDir, getLog().isDebugEnabled(), overwrite, invert);
+                    handler.transformDirectory(inputFile, outputDirectory, overwrite);
                     return;
                 } catch (IOException e) {
                     throw new MojoExecutionException(e.getMessage(), e);
@@ -116,11 +152,19 @@ public class MavenPluginTransformer extends AbstractMojo {
             inputFile = new File(buildFolder + File.separatorChar + targetName + "." + "jar");
         }
         if (inputFile != null && inputFile.exists()) {
+            try {
+                if (handler.isUpToDate(inputFile, inputFile)) {
+                    getLog().info(inputFile.getAbsolutePath() + " is up-to-date");
+                    return;
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
             File outputDir = new File(inputFile.getParentFile(), inputFile.getName() + ".temp");
             File outputFile = new File(outputDir, inputFile.getName());
             getLog().info("transforming " + inputFile.getAbsolutePath() + " into " + outputFile.getAbsolutePath());
             try {
-                HandleTransformation.transformFile(inputFile, outputFile, configsDir, getLog().isDebugEnabled(), invert);
+                handler.transformFileUnconditionally(inputFile, outputFile);
                 if (outputDir.exists()) {
                     getLog().info("transformer generated output file " + outputFile.getAbsolutePath() + " "
                             + " outputFile size = " + outputFile.length());
@@ -128,6 +172,8 @@ public class MavenPluginTransformer extends AbstractMojo {
                     inputFile.delete();
                     getLog().info("rename " + outputFile.getAbsolutePath() + " to " + inputFile.getAbsolutePath());
                     outputFile.renameTo(inputFile);
+                    // transformed in place, record transformed artifact so it is not transformed again
+                    handler.record(inputFile, inputFile);
                 } else {
                     getLog().info("transformer didn't generate " + outputDir.getAbsolutePath());
                 }
@@ -80,6 +80,12 @@ public class SourceTransformerMojo extends AbstractMojo {
     @Parameter(property = "invert", required = false, defaultValue = "false")
     private boolean invert;
 
+    /**
+     * Maximum count of files transformed concurrently, <code>0</code> means count of available processors.
+     */
+    @Parameter(property = "parallelism", required = false, defaultValue = "0")
+    private int parallelism;
+
     @Parameter(required = false, readonly = true)
     private String outputFolder;
 
@@ -92,12 +98,15 @@ public class SourceTransformerMojo extends AbstractMojo {
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         LifecyclePhase lifecyclePhase = valueOf(execution.getLifecyclePhase());
+        HandleTransformation handler = null;
         try {
+            handler = new HandleTransformation(configsDir, getLog().isDebugEnabled(), invert,
+                    HandleTransformation.getStampsFile(mavenProject.getBuild().getDirectory(), execution), parallelism, null);
             if (inputFile != null && inputFile.isDirectory()) {
                 File outputDir = getOutputDirectory(lifecyclePhase);
                 try {
                     getLog().info("Transforming contents of folder " + inputFile + " to " + outputDir);
-                    HandleTransformation.transformDirectory(inputFile, outputDir, configsDir, getLog().isDebugEnabled(), overwrite, invert, getIgnored(lifecyclePhase));
+                    handler.transformDirectory(inputFile, outputDir, overwrite, getIgnored(lifecyclePhase));
                     switch (lifecyclePhase) {
                         case GENERATE_SOURCES:
                             mavenProject.addCompileSourceRoot(new File(outputDir, inputFile.getName()).getAbsolutePath());
@@ -123,13 +132,21 @@ public class SourceTransformerMojo extends AbstractMojo {
                 getLog().info("Transforming contents of project " + sourceProject);
                 Path sourceProjectPath = sourceProject.toPath();
                 final Path baseDir = mavenProject.getBasedir().getCanonicalFile().toPath();
-                transformSources(baseDir, sourceProjectPath, GENERATE_SOURCES);
-                transformSources(baseDir, sourceProjectPath, GENERATE_TEST_SOURCES);
-                transformSources(baseDir, sourceProjectPath, GENERATE_RESOURCES);
-                transformSources(baseDir, sourceProjectPath, GENERATE_TEST_RESOURCES);
+                transformSources(handler, baseDir, sourceProjectPath, GENERATE_SOURCES);
+                transformSources(handler, baseDir, sourceProjectPath, GENERATE_TEST_SOURCES);
+                transformSources(handler, baseDir, sourceProjectPath, GENERATE_RESOURCES);
+                transformSources(handler, baseDir, sourceProjectPath, GENERATE_TEST_RESOURCES);
             }
         } catch (IOException ioex) {
             throw new MojoExecutionException("Error transforming code", ioex);
+        } finally {
+            if (handler != null) {
+                try {
+                    handler.saveStamps();
+                } catch (IOException e) {
+                    getLog().warn("Couldn't save up-to-date stamps: " + e.getMessage());
+                }
+            }
         }
     }
 
@@ -146,7 +163,7 @@ public class SourceTransformerMojo extends AbstractMojo {
         return GENERATE_SOURCES;
     }
 
-    private void transformSources(Path baseDir, Path sourceProjectPath, LifecyclePhase lifecyclePhase) throws IOException {
+    private void transformSources(HandleTransformation handler, Path baseDir, Path sourceProjectPath, LifecyclePhase lifecyclePhase) throws IOException {
         List<String> roots = getSourceRoots(lifecyclePhase);
         getLog().debug(lifecyclePhase + " roots are " + roots);
         File outputDir = null;
@@ -158,7 +175,7 @@ public class SourceTransformerMojo extends AbstractMojo {
                 if (Files.exists(input) && Files.isDirectory(input)) {
                     outputDir = getOutputDirectory(lifecyclePhase);
                     getLog().info("Transforming contents of folder " + input + " to " + outputDir);
-                    HandleTransformation.transformDirectory(input.toFile(), outputDir, configsDir, getLog().isDebugEnabled(), overwrite, invert, getIgnored(lifecyclePhase));
+                    handler.transformDirectory(input.toFile(), outputDir, overwrite, getIgnored(lifecyclePhase));
 
                 }
             } else {
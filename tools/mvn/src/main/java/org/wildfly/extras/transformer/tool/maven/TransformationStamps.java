@@ -0,0 +1,248 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.extras.transformer.tool.maven;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wildfly.extras.transformer.TransformationCache;
+
+/**
+ * Persisted up-to-date information of transformed files. For every target file the source file path, size,
+ * modification time and content hash are recorded together with target file size and modification time.
+ * Target file is up-to-date if neither source nor target changed since they were recorded and transformation
+ * configuration fingerprint is the same. Source content hash is computed only if source modification time changed.
+ * Can be used concurrently by multiple threads as instances of this class are thread safe.
+ */
+final class TransformationStamps {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String SEPARATOR = "|";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private final File stampsFile;
+    private final String fingerprint;
+    private final ConcurrentMap<String, Stamp> stamps = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+    private TransformationStamps(final File stampsFile, final String fingerprint) {
+        this.stampsFile = stampsFile;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Loads stamps file. Stamps recorded with different configuration fingerprint are discarded.
+     * Unreadable stamps file is treated as empty one.
+     *
+     * @param stampsFile stamps file
+     * @param fingerprint transformation configuration fingerprint
+     * @return stamps
+     */
+    static TransformationStamps load(final File stampsFile, final String fingerprint) {
+        final TransformationStamps retVal = new TransformationStamps(stampsFile, fingerprint);
+        if (!stampsFile.isFile()) return retVal;
+        final Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(stampsFile.toPath())) {
+            properties.load(is);
+        } catch (final IOException e) {
+            return retVal;
+        }
+        if (!fingerprint.equals(properties.getProperty(FINGERPRINT))) {
+            retVal.modified = true;
+            return retVal;
+        }
+        Stamp stamp;
+        for (final String target : properties.stringPropertyNames()) {
+            if (FINGERPRINT.equals(target)) continue;
+            stamp = Stamp.parse(properties.getProperty(target));
+            if (stamp != null) retVal.stamps.put(target, stamp);
+        }
+        return retVal;
+    }
+
+    /**
+     * Checks whether target file is up-to-date with respect to source file.
+     *
+     * @param source source file
+     * @param target target file
+     * @return <code>true</code> if target file doesn't need to be transformed again, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean isUpToDate(final File source, final File target) throws IOException {
+        final Stamp stamp = stamps.get(target.getAbsolutePath());
+        if (stamp == null || !stamp.source.equals(source.getAbsolutePath())) return false;
+        if (!target.isFile() || target.length() != stamp.targetSize || target.lastModified() != stamp.targetModified) return false;
+        if (!source.isFile() || source.length() != stamp.sourceSize) return false;
+        if (source.lastModified() == stamp.sourceModified) return true;
+        // source was touched, compare its content
+        if (!stamp.sourceHash.equals(hash(source))) return false;
+        stamps.put(target.getAbsolutePath(), new Stamp(stamp.source, stamp.sourceSize, source.lastModified(), stamp.sourceHash, stamp.targetSize, stamp.targetModified));
+        modified = true;
+        return true;
+    }
+
+    /**
+     * Records current state of transformed files.
+     *
+     * @param source source file
+     * @param target target file
+     * @throws IOException if some I/O error occurs
+     */
+    void record(final File source, final File target) throws IOException {
+        if (!target.isFile()) return; // transformer didn't produce target file
+        stamps.put(target.getAbsolutePath(), new Stamp(source.getAbsolutePath(), source.length(), source.lastModified(), hash(source), target.length(), target.lastModified()));
+        modified = true;
+    }
+
+    /**
+     * Writes stamps file atomically if some stamp was modified.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    void save() throws IOException {
+        if (!modified) return;
+        final Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT, fingerprint);
+        for (final Map.Entry<String, Stamp> stamp : stamps.entrySet()) {
+            properties.setProperty(stamp.getKey(), stamp.getValue().toString());
+        }
+        final Path dir = stampsFile.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(dir);
+        final Path tempFile = Files.createTempFile(dir, stampsFile.getName(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, "Transformer up-to-date stamps");
+            }
+            Files.move(tempFile, stampsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        modified = false;
+    }
+
+    /**
+     * Computes transformation configuration fingerprint from transformation engine identity, invert flag,
+     * archive entries time and content of all files in configuration directory.
+     *
+     * @param engineClass transformation engine implementation class
+     * @param configsDir configuration files directory or <code>null</code>
+     * @param invert invert flag
+     * @param entryTime fixed archive entries time or <code>null</code>
+     * @return transformation configuration fingerprint or <code>null</code> if transformation engine cannot be identified
+     * (see {@link TransformationCache#engineId(Class)})
+     * @throws IOException if some I/O error occurs
+     */
+    static String fingerprint(final Class<?> engineClass, final String configsDir, final boolean invert, final Long entryTime) throws IOException {
+        final String engineId = TransformationCache.engineId(engineClass);
+        if (engineId == null) {
+            return null; // outputs of unidentified engine are never up-to-date
+        }
+        final MessageDigest digest = newDigest();
+        digest.update(engineId.getBytes(UTF_8));
+        digest.update((byte) (invert ? 1 : 0));
+        digest.update(String.valueOf(entryTime).getBytes(UTF_8));
+        final File[] configs = configsDir != null ? new File(configsDir).listFiles(File::isFile) : null;
+        if (configs != null) {
+            Arrays.sort(configs);
+            for (final File config : configs) {
+                digest.update((byte) 0);
+                digest.update(config.getName().getBytes(UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(config.toPath()));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String hash(final File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+    }
+
+    private static String toHex(final byte[] data) {
+        final char[] retVal = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            retVal[2 * i] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+            retVal[2 * i + 1] = HEX_DIGITS[data[i] & 0xF];
+        }
+        return new String(retVal);
+    }
+
+    private static final class Stamp {
+        private final String source;
+        private final long sourceSize;
+        private final long sourceModified;
+        private final String sourceHash;
+        private final long targetSize;
+        private final long targetModified;
+
+        private Stamp(final String source, final long sourceSize, final long sourceModified, final String sourceHash,
+                      final long targetSize, final long targetModified) {
+            this.source = source;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.sourceHash = sourceHash;
+            this.targetSize = targetSize;
+            this.targetModified = targetModified;
+        }
+
+        private static Stamp parse(final String value) {
+            // source path is the last item as it can contain separator
+            final String[] items = value.split("\\" + SEPARATOR, 6);
+            if (items.length != 6) return null;
+            try {
+                return new Stamp(items[5], Long.parseLong(items[0]), Long.parseLong(items[1]), items[2], Long.parseLong(items[3]), Long.parseLong(items[4]));
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return sourceSize + SEPARATOR + sourceModified + SEPARATOR + sourceHash + SEPARATOR + targetSize + SEPARATOR + targetModified + SEPARATOR + source;
+        }
+    }
+
+}